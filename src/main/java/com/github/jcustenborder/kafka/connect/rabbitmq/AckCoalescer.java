@@ -0,0 +1,178 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.rabbitmq;
+
+import com.rabbitmq.client.Channel;
+import org.apache.kafka.common.utils.Time;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * Coalesces the acknowledgements for a single channel. Committed delivery tags are tracked relative to the
+ * highest tag that has already been acknowledged, and flushed as a single basicAck(tag, multiple = true)
+ * covering the highest contiguous committed tag.
+ */
+class AckCoalescer {
+  private static final Logger log = LoggerFactory.getLogger(AckCoalescer.class);
+
+  /**
+   * Notified after every basicAck, while the coalescer's lock is held.
+   */
+  interface Listener {
+    /**
+     * @param firstDeliveryTag lowest delivery tag covered by the acknowledgement.
+     * @param lastDeliveryTag  delivery tag that was acknowledged with multiple = true.
+     */
+    void acknowledged(long firstDeliveryTag, long lastDeliveryTag);
+  }
+
+  final Channel channel;
+  private int maxPending;
+  final long flushIntervalMs;
+  final Time time;
+  Listener listener = (firstDeliveryTag, lastDeliveryTag) -> {
+  };
+
+  /**
+   * Highest delivery tag that has been acknowledged.
+   */
+  private long acked;
+  /**
+   * Bit i is set when delivery tag acked + 1 + i has been committed.
+   */
+  private BitSet committed = new BitSet();
+  private int pending;
+  private long lastFlush;
+  private long ackFrames;
+
+  AckCoalescer(Channel channel, int maxPending, long flushIntervalMs, Time time) {
+    this.channel = channel;
+    this.maxPending = maxPending;
+    this.flushIntervalMs = flushIntervalMs;
+    this.time = time;
+    this.lastFlush = time.milliseconds();
+  }
+
+  /**
+   * Marks a delivery tag as committed, flushing if the maximum number of pending acknowledgements is reached.
+   *
+   * @param deliveryTag delivery tag to acknowledge.
+   * @throws IOException thrown if the acknowledgement could not be sent.
+   */
+  synchronized void commit(long deliveryTag) throws IOException {
+    if (deliveryTag <= this.acked) {
+      log.trace("commit() - deliveryTag {} is already acknowledged.", deliveryTag);
+      return;
+    }
+    this.committed.set((int) (deliveryTag - this.acked - 1L));
+    this.pending++;
+    if (this.pending >= this.maxPending) {
+      flush();
+    }
+  }
+
+  /**
+   * Flushes if there are pending acknowledgements and the flush interval has elapsed.
+   *
+   * @throws IOException thrown if the acknowledgement could not be sent.
+   */
+  synchronized void maybeFlush() throws IOException {
+    if (this.pending > 0 && this.time.milliseconds() - this.lastFlush >= this.flushIntervalMs) {
+      flush();
+    }
+  }
+
+  /**
+   * Acknowledges everything up to the highest contiguous committed delivery tag.
+   *
+   * @throws IOException thrown if the acknowledgement could not be sent.
+   */
+  synchronized void flush() throws IOException {
+    this.lastFlush = this.time.milliseconds();
+    final int contiguous = this.committed.nextClearBit(0);
+    if (0 == contiguous) {
+      return;
+    }
+    final long deliveryTag = this.acked + contiguous;
+    log.trace("flush() - basicAck({}, true)", deliveryTag);
+    this.channel.basicAck(deliveryTag, true);
+    this.ackFrames++;
+    final long firstDeliveryTag = this.acked + 1L;
+    this.acked = deliveryTag;
+    this.committed = this.committed.get(contiguous, Math.max(contiguous, this.committed.length()));
+    this.pending = this.committed.cardinality();
+    this.listener.acknowledged(firstDeliveryTag, deliveryTag);
+  }
+
+  /**
+   * Forgets everything that is pending and treats deliveryTag as acknowledged. Used once the channel the tags
+   * were delivered on is gone, acknowledging them on the recovered channel would ack the wrong messages.
+   *
+   * @param deliveryTag delivery tag to continue from.
+   */
+  synchronized void reset(long deliveryTag) {
+    log.debug("reset() - Discarding {} pending acknowledgements, continuing from deliveryTag {}.", this.pending, deliveryTag);
+    this.acked = deliveryTag;
+    this.committed.clear();
+    this.pending = 0;
+  }
+
+  /**
+   * Settles every delivery up to lastDeliveryTag before the channel is closed. The contiguous committed tags are
+   * flushed, committed tags above a gap are acknowledged individually and everything else is requeued with a single
+   * basicNack(lastDeliveryTag, multiple = true, requeue = true).
+   *
+   * @param lastDeliveryTag highest delivery tag received on the channel.
+   * @throws IOException thrown if the acknowledgements could not be sent.
+   */
+  synchronized void close(long lastDeliveryTag) throws IOException {
+    flush();
+    for (int i = this.committed.nextSetBit(0); i >= 0; i = this.committed.nextSetBit(i + 1)) {
+      final long deliveryTag = this.acked + 1L + i;
+      log.trace("close() - basicAck({}, false)", deliveryTag);
+      this.channel.basicAck(deliveryTag, false);
+      this.ackFrames++;
+    }
+    if (lastDeliveryTag > this.acked) {
+      log.trace("close() - basicNack({}, true, true)", lastDeliveryTag);
+      this.channel.basicNack(lastDeliveryTag, true, true);
+    }
+    reset(Math.max(this.acked, lastDeliveryTag));
+  }
+
+  synchronized void maxPending(int maxPending) {
+    this.maxPending = maxPending;
+  }
+
+  synchronized boolean hasPending() {
+    return this.pending > 0;
+  }
+
+  synchronized int pending() {
+    return this.pending;
+  }
+
+  synchronized long acked() {
+    return this.acked;
+  }
+
+  synchronized long ackFrames() {
+    return this.ackFrames;
+  }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.rabbitmq;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton that searches a byte array for any of a set of byte patterns in a single pass. The
+ * automaton is compiled to a full transition table up front so matching does not allocate and visits each
+ * input byte once, regardless of the number of patterns.
+ */
+class BytePatternMatcher {
+  private final int[][] transitions;
+  private final boolean[] terminal;
+
+  BytePatternMatcher(List<byte[]> patterns) {
+    int maxStates = 1;
+    for (byte[] pattern : patterns) {
+      if (0 == pattern.length) {
+        throw new IllegalArgumentException("patterns cannot be empty.");
+      }
+      maxStates += pattern.length;
+    }
+
+    int[][] transitions = new int[maxStates][];
+    boolean[] terminal = new boolean[maxStates];
+    int[] failure = new int[maxStates];
+    transitions[0] = newState();
+    int states = 1;
+
+    for (byte[] pattern : patterns) {
+      int state = 0;
+      for (byte b : pattern) {
+        final int index = b & 0xFF;
+        if (-1 == transitions[state][index]) {
+          transitions[states] = newState();
+          transitions[state][index] = states++;
+        }
+        state = transitions[state][index];
+      }
+      terminal[state] = true;
+    }
+
+    // Breadth first so that the failure state of every state is complete before it is used.
+    ArrayDeque<Integer> queue = new ArrayDeque<>();
+    for (int index = 0; index < 256; index++) {
+      final int next = transitions[0][index];
+      if (-1 == next) {
+        transitions[0][index] = 0;
+      } else {
+        failure[next] = 0;
+        queue.add(next);
+      }
+    }
+    while (!queue.isEmpty()) {
+      final int state = queue.poll();
+      for (int index = 0; index < 256; index++) {
+        final int next = transitions[state][index];
+        if (-1 == next) {
+          transitions[state][index] = transitions[failure[state]][index];
+        } else {
+          failure[next] = transitions[failure[state]][index];
+          terminal[next] |= terminal[failure[next]];
+          queue.add(next);
+        }
+      }
+    }
+
+    this.transitions = Arrays.copyOf(transitions, states);
+    this.terminal = Arrays.copyOf(terminal, states);
+  }
+
+  private static int[] newState() {
+    int[] state = new int[256];
+    Arrays.fill(state, -1);
+    return state;
+  }
+
+  /**
+   * @param data bytes to search.
+   * @return true if data contains any of the patterns.
+   */
+  boolean matches(byte[] data) {
+    int state = 0;
+    for (byte b : data) {
+      state = this.transitions[state][b & 0xFF];
+      if (this.terminal[state]) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -15,27 +15,126 @@
  */
 package com.github.jcustenborder.kafka.connect.rabbitmq;
 
-import com.github.jcustenborder.kafka.connect.utils.data.SourceRecordConcurrentLinkedDeque;
 import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Consumer;
 import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.RecoveryListener;
 import com.rabbitmq.client.ShutdownSignalException;
-import org.apache.kafka.connect.source.SourceRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
-class ConnectConsumer implements Consumer {
+/**
+ * Consumer for a single queue on its own channel. Each consumer has its own prefetch window and acknowledgements,
+ * so deliveries for different consumers are dispatched in parallel.
+ * <p>
+ * The delivery tags of a channel are only valid until the channel is lost. Every shutdown of the channel starts a
+ * new epoch, records carry the epoch they were delivered in so commits from a previous epoch can be dropped, and
+ * records of a previous epoch that are still buffered are purged since the broker redelivers them.
+ * <p>
+ * When deliveries are converted on a {@link ConversionPool} the dispatch thread reserves their space in the buffer
+ * and numbers them. They are converted in parallel, each thread with its own {@link SourceRecordBuilder}, and the
+ * thread that completes the next number in sequence buffers it along with every later one that is already done.
+ */
+class ConnectConsumer implements Consumer, RecoveryListener {
   private static final Logger log = LoggerFactory.getLogger(ConnectConsumer.class);
-  final SourceRecordConcurrentLinkedDeque records;
+  final RecordBuffer records;
   final RabbitMQSourceConnectorConfig config;
+  final Channel channel;
+  final String queue;
   final SourceRecordBuilder sourceRecordBuilder;
+  final AckCoalescer acks;
+  final DeliveryFilter filter;
+  final boolean streamMode;
+  final SourceTaskMetrics metrics;
+  final AtomicLong filtered = new AtomicLong();
+  final AtomicLong deliveries = new AtomicLong();
+  final AtomicLong deliveryBytes = new AtomicLong();
+  volatile long lastDeliveryTag;
+  volatile int epoch;
+  volatile String consumerTag;
+  volatile int prefetchCount;
+  /**
+   * Adjusts the prefetch count when rabbitmq.prefetch.adaptive.enabled is set, otherwise null.
+   */
+  PrefetchController prefetch;
+  /**
+   * Threads deliveries are converted on when rabbitmq.conversion.threads is set, otherwise null and deliveries are
+   * converted on the dispatch thread.
+   */
+  Executor conversion;
+  /**
+   * First exception thrown while converting on the conversion threads, rethrown by the task from poll().
+   */
+  volatile RuntimeException conversionFailure;
+  final ThreadLocal<SourceRecordBuilder> conversionBuilders;
+  /**
+   * Deliveries that were converted ahead of the next one in sequence.
+   */
+  final ConcurrentMap<Long, Converted> converted = new ConcurrentHashMap<>();
+  private final AtomicBoolean buffering = new AtomicBoolean();
+  /**
+   * Sequence number of the next delivery handed to the conversion threads, only accessed by the dispatch thread.
+   */
+  private long conversionSequence;
+  /**
+   * Sequence number of the next delivery to buffer, only accessed by the thread that holds {@link #buffering}.
+   */
+  private volatile long bufferSequence;
+  /**
+   * Payload bytes the task holds, null if they are not tracked.
+   */
+  InFlightBytes inFlight;
+  /**
+   * Epoch of the last delivery, only accessed by the dispatch thread.
+   */
+  private int deliveryEpoch;
+  /**
+   * Stream offset of the last buffered record, only written by the dispatch thread. A paused stream consumer
+   * resumes after it.
+   */
+  volatile long lastStreamOffset = -1L;
+  final AtomicLong staleCommits = new AtomicLong();
+  final AtomicLong purged = new AtomicLong();
+  /**
+   * {@link System#nanoTime()} of recent deliveries indexed by delivery tag, for the ack latency. The prefetch count
+   * bounds the number of unacknowledged deliveries so the ring only has to cover that many.
+   */
+  final long[] deliveredNanos;
+  final int deliveredNanosMask;
 
-  ConnectConsumer(SourceRecordConcurrentLinkedDeque records, RabbitMQSourceConnectorConfig config) {
+  ConnectConsumer(RecordBuffer records, RabbitMQSourceConnectorConfig config, Channel channel, String queue, AckCoalescer acks, SourceTaskMetrics metrics) {
     this.records = records;
     this.config = config;
-    this.sourceRecordBuilder = new SourceRecordBuilder(this.config);
+    this.channel = channel;
+    this.queue = queue;
+    this.acks = acks;
+    this.metrics = metrics;
+    this.sourceRecordBuilder = new SourceRecordBuilder(this.config, channel.getChannelNumber(), queue, metrics);
+    this.conversionBuilders = ThreadLocal.withInitial(
+        () -> new SourceRecordBuilder(this.config, channel.getChannelNumber(), queue, metrics)
+    );
+    this.filter = DeliveryFilters.of(this.config);
+    this.streamMode = RabbitMQSourceConnectorConfig.SourceMode.STREAM == this.config.sourceMode;
+    final int ringSize = Integer.highestOneBit(Math.max(1, this.config.maxPrefetchCount() - 1)) << 1;
+    this.deliveredNanos = new long[ringSize];
+    this.deliveredNanosMask = ringSize - 1;
+    this.acks.listener = this::acknowledged;
+  }
+
+  void acknowledged(long firstDeliveryTag, long lastDeliveryTag) {
+    final long latencyNanos = System.nanoTime() - this.deliveredNanos[(int) (firstDeliveryTag & this.deliveredNanosMask)];
+    this.metrics.ackLatency.record(latencyNanos / 1000000D);
   }
 
   @Override
@@ -56,6 +155,92 @@ class ConnectConsumer implements Consumer {
   @Override
   public void handleShutdownSignal(String s, ShutdownSignalException e) {
     log.trace("handleShutdownSignal({}, {})", s, e);
+    newEpoch();
+  }
+
+  /**
+   * Starts a new epoch once the channel is gone. Called on the dispatch thread after the last delivery of the
+   * channel was handled.
+   */
+  synchronized void newEpoch() {
+    final int epoch = this.epoch + 1;
+    this.epoch = epoch;
+    // Nothing delivered so far can be acknowledged anymore.
+    this.acks.reset(this.lastDeliveryTag);
+    if (this.streamMode) {
+      // Stream records stay valid, redeliveries are skipped by their stream offset instead.
+      return;
+    }
+    final int purged = purge(epoch);
+    log.info("Channel {} of queue '{}' was lost, purged {} buffered records.", this.channel.getChannelNumber(), this.queue, purged);
+  }
+
+  private int purge(final int epoch) {
+    final int channelNumber = this.channel.getChannelNumber();
+    final int purged = this.records.purge(record -> {
+      final Map<String, ?> sourceOffset = record.sourceOffset();
+      final Object recordEpoch = sourceOffset.get(SourceRecordBuilder.OFFSET_EPOCH);
+      final Object recordChannel = sourceOffset.get(SourceRecordBuilder.OFFSET_CHANNEL);
+      final boolean stale = null != recordEpoch && ((Number) recordEpoch).intValue() != epoch &&
+          null != recordChannel && ((Number) recordChannel).intValue() == channelNumber;
+      if (stale && null != this.inFlight) {
+        this.inFlight.remove(record);
+      }
+      return stale;
+    });
+    this.purged.addAndGet(purged);
+    return purged;
+  }
+
+  @Override
+  public void handleRecovery(Recoverable recoverable) {
+    log.info("Channel {} of queue '{}' was recovered.", this.channel.getChannelNumber(), this.queue);
+  }
+
+  @Override
+  public void handleRecoveryStarted(Recoverable recoverable) {
+    log.trace("handleRecoveryStarted({})", recoverable);
+  }
+
+  /**
+   * Stops the broker from sending further deliveries.
+   *
+   * @throws IOException thrown if the consumer could not be cancelled.
+   */
+  void cancel() throws IOException {
+    final String consumerTag = this.consumerTag;
+    if (null != consumerTag) {
+      log.info("Cancelling consumer {} of queue '{}'.", consumerTag, this.queue);
+      this.channel.basicCancel(consumerTag);
+      this.consumerTag = null;
+    }
+  }
+
+  /**
+   * Acknowledges what was committed, requeues everything else and starts a new epoch so commits that arrive
+   * afterwards are dropped.
+   *
+   * @throws IOException thrown if the acknowledgements could not be sent.
+   */
+  synchronized void close() throws IOException {
+    this.epoch = this.epoch + 1;
+    this.acks.close(this.lastDeliveryTag);
+  }
+
+  /**
+   * Commits a record that was written to Kafka.
+   *
+   * @param deliveryTag delivery tag of the record.
+   * @param epoch       epoch the record was delivered in.
+   * @throws IOException thrown if the acknowledgement could not be sent.
+   */
+  void commit(long deliveryTag, int epoch) throws IOException {
+    if (epoch != this.epoch) {
+      log.trace("commit() - Dropping deliveryTag {} of epoch {}, channel is at epoch {}.", deliveryTag, epoch, this.epoch);
+      this.staleCommits.incrementAndGet();
+      return;
+    }
+    this.acks.commit(deliveryTag);
   }
 
   @Override
@@ -66,13 +251,220 @@ class ConnectConsumer implements Consumer {
   @Override
   public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties basicProperties, byte[] bytes) throws IOException {
     log.trace("handleDelivery({})", consumerTag);
+    final long receivedNanos = System.nanoTime();
+    final long deliveryTag = envelope.getDeliveryTag();
+    final int epoch = this.epoch;
+    if (epoch != this.deliveryEpoch) {
+      // First delivery on the recovered channel, depending on the client tags either continue or start over at 1.
+      this.deliveryEpoch = epoch;
+      this.acks.reset(deliveryTag - 1L);
+    }
+    this.deliveredNanos[(int) (deliveryTag & this.deliveredNanosMask)] = receivedNanos;
+    this.lastDeliveryTag = deliveryTag;
+    this.deliveries.incrementAndGet();
+    this.deliveryBytes.addAndGet(bytes.length);
 
-    String bodystring = new String(bytes);
-    if (!bodystring.contains("/ping/ping")) {
-      SourceRecord sourceRecord = this.sourceRecordBuilder.sourceRecord(consumerTag, envelope, basicProperties, bytes);
-      this.records.add(sourceRecord);
+    if (this.streamMode) {
+      final long streamOffset = SourceRecordBuilder.streamOffset(basicProperties);
+      if (streamOffset <= this.lastStreamOffset) {
+        // Redelivered after recovery restarted the consumer from its original x-stream-offset.
+        this.acks.commit(deliveryTag);
+        return;
+      }
+      this.lastStreamOffset = streamOffset;
+    }
+
+    // Compressed bodies that are decompressed are filtered once they were decoded, during conversion.
+    if (!decodesBody(basicProperties) && this.filter.matches(envelope, basicProperties, bytes)) {
+      drop(consumerTag, deliveryTag);
+    } else if (null == this.conversion) {
+      convert(consumerTag, envelope, basicProperties, bytes, epoch, receivedNanos);
+    } else {
+      submit(consumerTag, envelope, basicProperties, bytes, epoch, receivedNanos);
     }
   }
 
+  private boolean decodesBody(AMQP.BasicProperties basicProperties) {
+    return null != this.sourceRecordBuilder.contentDecoder && ContentDecoder.compressed(basicProperties.getContentEncoding());
+  }
 
+  private void drop(String consumerTag, long deliveryTag) throws IOException {
+    log.trace("handleDelivery({}) - Dropping deliveryTag {}.", consumerTag, deliveryTag);
+    this.filtered.incrementAndGet();
+    // Dropped messages are acknowledged, they would otherwise hold back the cumulative ack.
+    this.acks.commit(deliveryTag);
+  }
+
+  /**
+   * Records the first conversion failure for poll() to fail the task with. Letting it escape handleDelivery would
+   * have the client close the channel, which automatic recovery does not reopen.
+   */
+  private void conversionFailed(String consumerTag, long deliveryTag, Exception e) {
+    log.error("handleDelivery({}) - Exception thrown while converting deliveryTag {}.", consumerTag, deliveryTag, e);
+    if (null == this.conversionFailure) {
+      this.conversionFailure = e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Result of a delivery converted on the conversion threads, record is null if the delivery is not buffered.
+   */
+  static class Converted {
+    final DeliveredRecord record;
+    final int reservedBytes;
+    final long deliveryTag;
+    final int epoch;
+    final long receivedNanos;
+
+    Converted(DeliveredRecord record, int reservedBytes, long deliveryTag, int epoch, long receivedNanos) {
+      this.record = record;
+      this.reservedBytes = reservedBytes;
+      this.deliveryTag = deliveryTag;
+      this.epoch = epoch;
+      this.receivedNanos = receivedNanos;
+    }
+  }
+
+  /**
+   * Reserves buffer space for a delivery and hands it to the conversion threads. The raw body is charged to the
+   * buffer and the in-flight bytes until the record replaces it.
+   */
+  void submit(String consumerTag, Envelope envelope, AMQP.BasicProperties basicProperties, byte[] bytes, int epoch, long receivedNanos) {
+    final long deliveryTag = envelope.getDeliveryTag();
+    try {
+      if (!this.records.reserve(bytes.length)) {
+        // The task is stopping, the message is left unacknowledged and will be requeued.
+        return;
+      }
+    } catch (InterruptedException e) {
+      log.warn("handleDelivery({}) - Interrupted while waiting for buffer space.", consumerTag);
+      Thread.currentThread().interrupt();
+      return;
+    }
+    if (null != this.inFlight) {
+      this.inFlight.add(bytes.length);
+    }
+    final long sequence = this.conversionSequence++;
+    try {
+      this.conversion.execute(() -> {
+        DeliveredRecord record = null;
+        try {
+          final SourceRecordBuilder builder = this.conversionBuilders.get();
+          final byte[] decoded = builder.decode(basicProperties, bytes);
+          if (decoded != bytes && this.filter.matches(envelope, basicProperties, decoded)) {
+            drop(consumerTag, deliveryTag);
+          } else {
+            builder.epoch = epoch;
+            record = builder.decodedRecord(consumerTag, envelope, basicProperties, decoded);
+          }
+        } catch (IOException | RuntimeException e) {
+          conversionFailed(consumerTag, deliveryTag, e);
+        }
+        converted(sequence, new Converted(record, bytes.length, deliveryTag, epoch, receivedNanos));
+      });
+    } catch (RejectedExecutionException e) {
+      // The task is stopping, the message is left unacknowledged and will be requeued.
+      log.trace("handleDelivery({}) - Conversion stopped, dropping deliveryTag {}.", consumerTag, deliveryTag);
+      converted(sequence, new Converted(null, bytes.length, deliveryTag, epoch, receivedNanos));
+    }
+  }
+
+  /**
+   * Hands over a converted delivery and buffers every delivery that is next in sequence. Only one thread buffers at
+   * a time, a thread that finds another one buffering leaves its delivery to it.
+   */
+  void converted(long sequence, Converted converted) {
+    this.converted.put(sequence, converted);
+    while (this.buffering.compareAndSet(false, true)) {
+      try {
+        Converted next;
+        while (null != (next = this.converted.remove(this.bufferSequence))) {
+          this.bufferSequence++;
+          buffer(next);
+        }
+      } finally {
+        this.buffering.set(false);
+      }
+      // A delivery completed after the last check but before buffering was released.
+      if (!this.converted.containsKey(this.bufferSequence)) {
+        break;
+      }
+    }
+  }
+
+  private void buffer(Converted converted) {
+    final DeliveredRecord record = converted.record;
+    if (null == record) {
+      this.records.release(converted.reservedBytes);
+      if (null != this.inFlight) {
+        this.inFlight.add(-converted.reservedBytes);
+      }
+      return;
+    }
+    if (null != this.inFlight) {
+      this.inFlight.add(record.bytes - converted.reservedBytes);
+    }
+    final boolean added = this.records.add(record, converted.reservedBytes, record.bytes, converted.receivedNanos);
+    if (!added) {
+      if (null != this.inFlight) {
+        this.inFlight.remove(record);
+      }
+    } else if (this.streamMode) {
+      try {
+        // The stream offset in the record tracks progress, the ack only replenishes the consumer's credit.
+        this.acks.commit(converted.deliveryTag);
+      } catch (IOException e) {
+        log.error("buffer() - Exception thrown while acknowledging deliveryTag {}.", converted.deliveryTag, e);
+        if (null == this.conversionFailure) {
+          this.conversionFailure = new RuntimeException(e);
+        }
+      }
+    } else if (converted.epoch != this.epoch) {
+      // The channel was lost while this delivery was being converted.
+      purge(this.epoch);
+    }
+  }
+
+  /**
+   * Converts a delivery and adds it to the buffer on the dispatch thread.
+   */
+  void convert(String consumerTag, Envelope envelope, AMQP.BasicProperties basicProperties, byte[] bytes, int epoch, long receivedNanos) throws IOException {
+    final DeliveredRecord sourceRecord;
+    try {
+      final byte[] decoded = this.sourceRecordBuilder.decode(basicProperties, bytes);
+      if (decoded != bytes && this.filter.matches(envelope, basicProperties, decoded)) {
+        drop(consumerTag, envelope.getDeliveryTag());
+        return;
+      }
+      this.sourceRecordBuilder.epoch = epoch;
+      sourceRecord = this.sourceRecordBuilder.decodedRecord(consumerTag, envelope, basicProperties, decoded);
+    } catch (RuntimeException e) {
+      // The message is left unacknowledged and is requeued once the failed task closes the channel.
+      conversionFailed(consumerTag, envelope.getDeliveryTag(), e);
+      return;
+    }
+    if (null != this.inFlight) {
+      this.inFlight.add(sourceRecord);
+    }
+    try {
+      final boolean added = this.records.add(sourceRecord, sourceRecord.bytes, receivedNanos);
+      if (!added && null != this.inFlight) {
+        this.inFlight.remove(sourceRecord);
+      }
+      if (added && this.streamMode) {
+        // The stream offset in the record tracks progress, the ack only replenishes the consumer's credit.
+        this.acks.commit(envelope.getDeliveryTag());
+      } else if (added && epoch != this.epoch) {
+        // The channel was lost while this delivery was waiting for buffer space.
+        purge(this.epoch);
+      }
+    } catch (InterruptedException e) {
+      if (null != this.inFlight) {
+        this.inFlight.remove(sourceRecord);
+      }
+      // The message is left unacknowledged and will be redelivered once the channel is closed.
+      log.warn("handleDelivery({}) - Interrupted while waiting for buffer space.", consumerTag);
+      Thread.currentThread().interrupt();
+    }
+  }
 }
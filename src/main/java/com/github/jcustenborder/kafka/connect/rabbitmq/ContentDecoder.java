@@ -0,0 +1,218 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.rabbitmq;
+
+import net.jpountz.lz4.LZ4FrameInputStream;
+import org.apache.kafka.connect.errors.DataException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses message bodies by their contentEncoding. An instance is owned by a single
+ * {@link SourceRecordBuilder}, so the inflaters and the output buffer are reused for every delivery of the consumer
+ * instead of being allocated per message.
+ */
+class ContentDecoder {
+  static final String GZIP = "gzip";
+  static final String DEFLATE = "deflate";
+  static final String LZ4 = "lz4";
+  static final int INITIAL_BUFFER_SIZE = 8192;
+  /**
+   * The output buffer is dropped after decoding a body larger than this, so one large message does not pin its
+   * size for the lifetime of the consumer.
+   */
+  static final int MAX_RETAINED_BUFFER_SIZE = 1 << 20;
+  /**
+   * Largest array most JVMs can allocate.
+   */
+  static final int MAX_BUFFER_SIZE = Integer.MAX_VALUE - 8;
+
+  private static final int GZIP_MAGIC = 0x8b1f;
+  private static final int GZIP_FHCRC = 2;
+  private static final int GZIP_FEXTRA = 4;
+  private static final int GZIP_FNAME = 8;
+  private static final int GZIP_FCOMMENT = 16;
+
+  private final Inflater gzipInflater = new Inflater(true);
+  private final Inflater deflateInflater = new Inflater(false);
+  private final CRC32 crc = new CRC32();
+  private final int maxBytes;
+  private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+  /**
+   * @param maxBytes largest decompressed body, bodies that decompress to more are rejected.
+   */
+  ContentDecoder(int maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * @param contentEncoding contentEncoding of the message.
+   * @return true if bodies with the content encoding are compressed with a codec that can be decoded.
+   */
+  static boolean compressed(String contentEncoding) {
+    return GZIP.equalsIgnoreCase(contentEncoding) ||
+        DEFLATE.equalsIgnoreCase(contentEncoding) ||
+        LZ4.equalsIgnoreCase(contentEncoding);
+  }
+
+  /**
+   * @param contentEncoding contentEncoding of the message.
+   * @param body            message body.
+   * @return the decompressed body, or the body itself if the content encoding is not a supported codec.
+   * @throws DataException if the body is corrupt or decompresses to more than maxBytes.
+   */
+  byte[] decode(String contentEncoding, byte[] body) {
+    final int length;
+    if (GZIP.equalsIgnoreCase(contentEncoding)) {
+      length = gunzip(body);
+    } else if (DEFLATE.equalsIgnoreCase(contentEncoding)) {
+      this.deflateInflater.reset();
+      this.deflateInflater.setInput(body);
+      length = inflate(this.deflateInflater, contentEncoding);
+    } else if (LZ4.equalsIgnoreCase(contentEncoding)) {
+      length = lz4(body);
+    } else {
+      return body;
+    }
+    final byte[] result = Arrays.copyOf(this.buffer, length);
+    if (this.buffer.length > MAX_RETAINED_BUFFER_SIZE) {
+      this.buffer = new byte[INITIAL_BUFFER_SIZE];
+    }
+    return result;
+  }
+
+  private int gunzip(byte[] body) {
+    if (body.length < 18 || GZIP_MAGIC != ((body[0] & 0xff) | (body[1] & 0xff) << 8) || 8 != body[2]) {
+      throw new DataException("Message body is not in gzip format.");
+    }
+    final int flags = body[3] & 0xff;
+    // Skip the modification time, extra flags and operating system.
+    int offset = 10;
+    if ((flags & GZIP_FEXTRA) != 0) {
+      offset += 2 + ((body[offset] & 0xff) | (body[offset + 1] & 0xff) << 8);
+    }
+    if ((flags & GZIP_FNAME) != 0) {
+      offset = skipZeroTerminated(body, offset);
+    }
+    if ((flags & GZIP_FCOMMENT) != 0) {
+      offset = skipZeroTerminated(body, offset);
+    }
+    if ((flags & GZIP_FHCRC) != 0) {
+      offset += 2;
+    }
+    if (offset >= body.length) {
+      throw new DataException("gzip message body is truncated.");
+    }
+
+    this.gzipInflater.reset();
+    this.gzipInflater.setInput(body, offset, body.length - offset);
+    final int length = inflate(this.gzipInflater, GZIP);
+    final int trailer = body.length - this.gzipInflater.getRemaining();
+    if (trailer + 8 > body.length) {
+      throw new DataException("gzip message body is truncated.");
+    }
+    this.crc.reset();
+    this.crc.update(this.buffer, 0, length);
+    if (readInt(body, trailer) != (int) this.crc.getValue() || readInt(body, trailer + 4) != length) {
+      throw new DataException("gzip message body failed the CRC check.");
+    }
+    return length;
+  }
+
+  private int inflate(Inflater inflater, String contentEncoding) {
+    int length = 0;
+    try {
+      while (!inflater.finished()) {
+        if (length == this.buffer.length) {
+          grow(contentEncoding);
+        }
+        final int inflated = inflater.inflate(this.buffer, length, this.buffer.length - length);
+        if (0 == inflated && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new DataException(String.format("%s message body is truncated.", contentEncoding));
+        }
+        length += inflated;
+      }
+    } catch (DataFormatException e) {
+      throw new DataException(String.format("Message body is not in %s format.", contentEncoding), e);
+    }
+    return checkLength(length, contentEncoding);
+  }
+
+  private int lz4(byte[] body) {
+    int length = 0;
+    try (LZ4FrameInputStream inputStream = new LZ4FrameInputStream(new ByteArrayInputStream(body))) {
+      int read;
+      do {
+        if (length == this.buffer.length) {
+          grow(LZ4);
+        }
+        read = inputStream.read(this.buffer, length, this.buffer.length - length);
+        if (read > 0) {
+          length += read;
+        }
+      } while (read >= 0);
+    } catch (DataException e) {
+      throw e;
+    } catch (IOException | RuntimeException e) {
+      throw new DataException("Message body is not in lz4 frame format.", e);
+    }
+    return checkLength(length, LZ4);
+  }
+
+  /**
+   * Doubles the output buffer, up to one byte past maxBytes so a body that is too large can be detected.
+   */
+  private void grow(String contentEncoding) {
+    final long limit = Math.min(this.maxBytes + 1L, MAX_BUFFER_SIZE);
+    if (this.buffer.length >= limit) {
+      throw tooLarge(contentEncoding);
+    }
+    this.buffer = Arrays.copyOf(this.buffer, (int) Math.min(this.buffer.length * 2L, limit));
+  }
+
+  private int checkLength(int length, String contentEncoding) {
+    if (length > this.maxBytes) {
+      throw tooLarge(contentEncoding);
+    }
+    return length;
+  }
+
+  private DataException tooLarge(String contentEncoding) {
+    return new DataException(
+        String.format("%s message body decompresses to more than %d bytes.", contentEncoding, this.maxBytes)
+    );
+  }
+
+  private static int skipZeroTerminated(byte[] body, int offset) {
+    while (offset < body.length && 0 != body[offset]) {
+      offset++;
+    }
+    return offset + 1;
+  }
+
+  private static int readInt(byte[] body, int offset) {
+    return (body[offset] & 0xff) |
+        (body[offset + 1] & 0xff) << 8 |
+        (body[offset + 2] & 0xff) << 16 |
+        (body[offset + 3] & 0xff) << 24;
+  }
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.rabbitmq;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Threads that convert deliveries off the dispatch thread. Deliveries of all consumers are converted in parallel,
+ * including deliveries of the same consumer, which puts them back into delivery order before they are buffered.
+ */
+class ConversionPool {
+  final ExecutorService executor;
+
+  ConversionPool(int threads) {
+    final ThreadFactory threadFactory = new ThreadFactoryBuilder()
+        .setNameFormat("rabbitmq-conversion-%d")
+        .setDaemon(true)
+        .build();
+    this.executor = Executors.newFixedThreadPool(threads, threadFactory);
+  }
+
+  /**
+   * Stops the threads, deliveries that were not converted yet are left unacknowledged.
+   */
+  void close() {
+    this.executor.shutdownNow();
+  }
+}
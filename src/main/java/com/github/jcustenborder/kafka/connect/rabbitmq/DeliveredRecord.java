@@ -0,0 +1,41 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.rabbitmq;
+
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.header.Header;
+import org.apache.kafka.connect.source.SourceRecord;
+
+import java.util.Map;
+
+/**
+ * Record built from a delivery. Carries the payload bytes it was charged with so the exact same number is released
+ * when it is committed or purged. Connect commits the record poll() returned, before transformations, so the
+ * charge is still available in commitRecord.
+ */
+class DeliveredRecord extends SourceRecord {
+  /**
+   * Payload bytes of the message body after it was decompressed, charged against the buffer and
+   * inflight.max.bytes.
+   */
+  final int bytes;
+
+  DeliveredRecord(Map<String, ?> sourcePartition, Map<String, ?> sourceOffset, String topic, Schema keySchema, Object key,
+                  Schema valueSchema, Object value, Long timestamp, Iterable<Header> headers, int bytes) {
+    super(sourcePartition, sourceOffset, topic, null, keySchema, key, valueSchema, value, timestamp, headers);
+    this.bytes = bytes;
+  }
+}
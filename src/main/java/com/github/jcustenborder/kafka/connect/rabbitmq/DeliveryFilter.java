@@ -0,0 +1,34 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.rabbitmq;
+
+import com.rabbitmq.client.BasicProperties;
+import com.rabbitmq.client.Envelope;
+
+/**
+ * Predicate evaluated against every delivery before it is converted. Deliveries that match are dropped and
+ * acknowledged. Compressed bodies are evaluated after they were decompressed when rabbitmq.content.encoding is
+ * DECOMPRESS.
+ */
+interface DeliveryFilter {
+  /**
+   * @param envelope        envelope of the delivery.
+   * @param basicProperties properties of the delivery.
+   * @param body            message body, decompressed when rabbitmq.content.encoding is DECOMPRESS.
+   * @return true if the delivery should be dropped.
+   */
+  boolean matches(Envelope envelope, BasicProperties basicProperties, byte[] body);
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.rabbitmq;
+
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ListMultimap;
+import com.rabbitmq.client.BasicProperties;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.LongString;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds the {@link DeliveryFilter} for a task from the rabbitmq.filter.* settings.
+ */
+class DeliveryFilters {
+  /**
+   * Filter that does not match any delivery.
+   */
+  static final DeliveryFilter NONE = (envelope, basicProperties, body) -> false;
+
+  static DeliveryFilter of(RabbitMQSourceConnectorConfig config) {
+    List<DeliveryFilter> filters = new ArrayList<>();
+    if (!config.filterBodyContains.isEmpty()) {
+      filters.add(new BodyContains(config.filterBodyContains));
+    }
+    if (!config.filterRoutingKeys.isEmpty()) {
+      filters.add(new RoutingKeys(config.filterRoutingKeys));
+    }
+    if (!config.filterExchanges.isEmpty()) {
+      filters.add(new Exchanges(config.filterExchanges));
+    }
+    if (!config.filterHeaders.isEmpty()) {
+      filters.add(new Headers(config.filterHeaders));
+    }
+
+    if (filters.isEmpty()) {
+      return NONE;
+    } else if (1 == filters.size()) {
+      return filters.get(0);
+    } else {
+      return new AnyOf(filters);
+    }
+  }
+
+  static class AnyOf implements DeliveryFilter {
+    final DeliveryFilter[] filters;
+
+    AnyOf(List<DeliveryFilter> filters) {
+      this.filters = filters.toArray(new DeliveryFilter[filters.size()]);
+    }
+
+    @Override
+    public boolean matches(Envelope envelope, BasicProperties basicProperties, byte[] body) {
+      for (DeliveryFilter filter : this.filters) {
+        if (filter.matches(envelope, basicProperties, body)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Matches bodies containing any of the patterns, encoded as UTF-8, without decoding the body.
+   */
+  static class BodyContains implements DeliveryFilter {
+    final BytePatternMatcher matcher;
+
+    BodyContains(List<String> patterns) {
+      List<byte[]> bytePatterns = new ArrayList<>(patterns.size());
+      for (String pattern : patterns) {
+        bytePatterns.add(pattern.getBytes(StandardCharsets.UTF_8));
+      }
+      this.matcher = new BytePatternMatcher(bytePatterns);
+    }
+
+    @Override
+    public boolean matches(Envelope envelope, BasicProperties basicProperties, byte[] body) {
+      return null != body && this.matcher.matches(body);
+    }
+  }
+
+  static class RoutingKeys implements DeliveryFilter {
+    final Set<String> routingKeys;
+
+    RoutingKeys(List<String> routingKeys) {
+      this.routingKeys = ImmutableSet.copyOf(routingKeys);
+    }
+
+    @Override
+    public boolean matches(Envelope envelope, BasicProperties basicProperties, byte[] body) {
+      return null != envelope.getRoutingKey() && this.routingKeys.contains(envelope.getRoutingKey());
+    }
+  }
+
+  static class Exchanges implements DeliveryFilter {
+    final Set<String> exchanges;
+
+    Exchanges(List<String> exchanges) {
+      this.exchanges = ImmutableSet.copyOf(exchanges);
+    }
+
+    @Override
+    public boolean matches(Envelope envelope, BasicProperties basicProperties, byte[] body) {
+      return null != envelope.getExchange() && this.exchanges.contains(envelope.getExchange());
+    }
+  }
+
+  /**
+   * Matches deliveries that have a header, or a header with a specific value. Entries are in the form of
+   * name or name=value, a header can be listed with several values.
+   */
+  static class Headers implements DeliveryFilter {
+    final ListMultimap<String, HeaderPredicate> predicates;
+
+    static class HeaderPredicate {
+      final String value;
+      final byte[] valueBytes;
+
+      HeaderPredicate(String value) {
+        this.value = value;
+        this.valueBytes = null == value ? null : value.getBytes(StandardCharsets.UTF_8);
+      }
+
+      boolean test(Object headerValue) {
+        if (null == this.value) {
+          return true;
+        } else if (headerValue instanceof LongString) {
+          // Compare the raw bytes rather than decoding the LongString.
+          return Arrays.equals(this.valueBytes, ((LongString) headerValue).getBytes());
+        } else if (headerValue instanceof String) {
+          return this.value.equals(headerValue);
+        } else {
+          return null != headerValue && this.value.equals(headerValue.toString());
+        }
+      }
+    }
+
+    Headers(List<String> entries) {
+      ImmutableListMultimap.Builder<String, HeaderPredicate> builder = ImmutableListMultimap.builder();
+      for (String entry : entries) {
+        final int index = entry.indexOf('=');
+        if (-1 == index) {
+          builder.put(entry, new HeaderPredicate(null));
+        } else {
+          builder.put(entry.substring(0, index), new HeaderPredicate(entry.substring(index + 1)));
+        }
+      }
+      this.predicates = builder.build();
+    }
+
+    @Override
+    public boolean matches(Envelope envelope, BasicProperties basicProperties, byte[] body) {
+      if (null == basicProperties) {
+        return false;
+      }
+      final Map<String, Object> headers = basicProperties.getHeaders();
+      if (null == headers || headers.isEmpty()) {
+        return false;
+      }
+      for (Map.Entry<String, HeaderPredicate> predicate : this.predicates.entries()) {
+        if (headers.containsKey(predicate.getKey()) && predicate.getValue().test(headers.get(predicate.getKey()))) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  private DeliveryFilters() {
+  }
+}
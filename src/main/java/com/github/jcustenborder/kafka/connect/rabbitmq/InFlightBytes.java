@@ -0,0 +1,81 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.rabbitmq;
+
+import org.apache.kafka.connect.source.SourceRecord;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Payload bytes of the records a task holds, from the delivery being converted until Connect commits the record.
+ * This covers both the buffer and the records poll() already handed to the Kafka producer. Once maxBytes is
+ * reached the task cancels its consumers and starts them again when the bytes drop to half of it.
+ */
+class InFlightBytes {
+  final long maxBytes;
+  final long resumeBytes;
+  private final AtomicLong bytes = new AtomicLong();
+  final AtomicLong pauses = new AtomicLong();
+  volatile boolean paused;
+
+  /**
+   * @param maxBytes payload bytes at which consumption is paused, 0 to only track them.
+   */
+  InFlightBytes(long maxBytes) {
+    this.maxBytes = maxBytes;
+    this.resumeBytes = maxBytes / 2L;
+  }
+
+  /**
+   * @return the payload bytes the record was charged with, the same unit {@link RecordBuffer} counts.
+   */
+  static long size(SourceRecord record) {
+    return record instanceof DeliveredRecord ? ((DeliveredRecord) record).bytes : 0L;
+  }
+
+  void add(SourceRecord record) {
+    add(size(record));
+  }
+
+  /**
+   * @param bytes payload bytes to charge, negative to release them.
+   */
+  void add(long bytes) {
+    this.bytes.addAndGet(bytes);
+  }
+
+  void remove(SourceRecord record) {
+    this.bytes.addAndGet(-size(record));
+  }
+
+  long bytes() {
+    return this.bytes.get();
+  }
+
+  /**
+   * @return true if consumption should be paused.
+   */
+  boolean exhausted() {
+    return this.maxBytes > 0L && this.bytes.get() >= this.maxBytes;
+  }
+
+  /**
+   * @return true if paused consumption can resume.
+   */
+  boolean recovered() {
+    return this.bytes.get() <= this.resumeBytes;
+  }
+}
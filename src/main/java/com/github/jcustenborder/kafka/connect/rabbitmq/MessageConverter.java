@@ -15,22 +15,29 @@
  */
 package com.github.jcustenborder.kafka.connect.rabbitmq;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.BasicProperties;
 import com.rabbitmq.client.Envelope;
 import com.rabbitmq.client.LongString;
+import org.apache.kafka.connect.data.Field;
 import org.apache.kafka.connect.data.Schema;
 import org.apache.kafka.connect.data.SchemaBuilder;
 import org.apache.kafka.connect.data.Struct;
 import org.apache.kafka.connect.data.Timestamp;
 import org.apache.kafka.connect.errors.DataException;
+import org.apache.kafka.connect.header.ConnectHeaders;
+import org.apache.kafka.connect.header.Headers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.math.BigDecimal;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 class MessageConverter {
@@ -196,36 +203,53 @@ class MessageConverter {
     FIELD_LOOKUP = ImmutableMap.copyOf(fieldLookup);
   }
 
+  /**
+   * The storage field of {@link #SCHEMA_HEADER_VALUE} for each header value type, resolved once so that
+   * converting a header does not have to look the field up by name.
+   */
+  static final Map<Class<?>, Field> HEADER_FIELDS;
+  static final Field HEADER_FIELD_TYPE = SCHEMA_HEADER_VALUE.field("type");
+
+  static {
+    ImmutableMap.Builder<Class<?>, Field> headerFields = ImmutableMap.builder();
+    for (Map.Entry<Class<?>, String> kvp : FIELD_LOOKUP.entrySet()) {
+      headerFields.put(kvp.getKey(), SCHEMA_HEADER_VALUE.field(kvp.getValue()));
+    }
+    HEADER_FIELDS = headerFields.build();
+  }
+
+  /**
+   * Converts the AMQP headers to HeaderValue structs. This is only called when the BasicProperties struct is
+   * built, the topic router and delivery filters read the AMQP headers directly.
+   */
   static Map<String, Struct> headers(BasicProperties basicProperties) {
     Map<String, Object> input = basicProperties.getHeaders();
-    Map<String, Struct> results = new LinkedHashMap<>();
-    if (null != input) {
-      for (Map.Entry<String, Object> kvp : input.entrySet()) {
-        log.trace("headers() - key = '{}' value= '{}'", kvp.getKey(), kvp.getValue());
-        final String field;
-        final Object headerValue;
-
-        if (kvp.getValue() instanceof LongString) {
-          headerValue = kvp.getValue().toString();
-        } else {
-          headerValue = kvp.getValue();
-        }
-
-        if (!FIELD_LOOKUP.containsKey(headerValue.getClass())) {
-          throw new DataException(
-              String.format("Could not determine the type for field '%s' type '%s'", kvp.getKey(), headerValue.getClass().getName())
-          );
-        } else {
-          field = FIELD_LOOKUP.get(headerValue.getClass());
-        }
-
-        log.trace("headers() - Storing value for header in field = '{}' as {}", field, field);
-
-        Struct value = new Struct(SCHEMA_HEADER_VALUE)
-            .put("type", field)
-            .put(field, headerValue);
-        results.put(kvp.getKey(), value);
+    if (null == input || input.isEmpty()) {
+      return Collections.emptyMap();
+    }
+    log.trace("headers() - Converting {} header(s).", input.size());
+    Map<String, Struct> results = new LinkedHashMap<>((int) (input.size() / 0.75F) + 1);
+    for (Map.Entry<String, Object> kvp : input.entrySet()) {
+      final Object headerValue;
+
+      if (kvp.getValue() instanceof LongString) {
+        headerValue = kvp.getValue().toString();
+      } else {
+        headerValue = kvp.getValue();
+      }
+
+      final Field field = null == headerValue ? null : HEADER_FIELDS.get(headerValue.getClass());
+      if (null == field) {
+        throw new DataException(
+            String.format("Could not determine the type for field '%s' type '%s'", kvp.getKey(),
+                null == headerValue ? "null" : headerValue.getClass().getName())
+        );
       }
+
+      Struct value = new Struct(SCHEMA_HEADER_VALUE)
+          .put(HEADER_FIELD_TYPE, field.name())
+          .put(field, headerValue);
+      results.put(kvp.getKey(), value);
     }
     return results;
   }
@@ -253,6 +277,123 @@ class MessageConverter {
         .put(FIELD_BASIC_PROPERTIES_APPID, basicProperties.getAppId());
   }
 
+  /**
+   * Prefix for the Kafka record headers that hold BasicProperties fields.
+   */
+  static final String RECORD_HEADER_PROPERTY_PREFIX = "amqp.";
+
+  /**
+   * BasicProperties fields that can be copied to Kafka record headers.
+   */
+  static final List<String> RECORD_HEADER_PROPERTIES = ImmutableList.of(
+      FIELD_BASIC_PROPERTIES_CONTENTTYPE,
+      FIELD_BASIC_PROPERTIES_CONTENTENCODING,
+      FIELD_BASIC_PROPERTIES_DELIVERYMODE,
+      FIELD_BASIC_PROPERTIES_PRIORITY,
+      FIELD_BASIC_PROPERTIES_CORRELATIONID,
+      FIELD_BASIC_PROPERTIES_REPLYTO,
+      FIELD_BASIC_PROPERTIES_EXPIRATION,
+      FIELD_BASIC_PROPERTIES_MESSAGEID,
+      FIELD_BASIC_PROPERTIES_TIMESTAMP,
+      FIELD_BASIC_PROPERTIES_TYPE,
+      FIELD_BASIC_PROPERTIES_USERID,
+      FIELD_BASIC_PROPERTIES_APPID
+  );
+
+  static Object basicProperty(BasicProperties basicProperties, String field) {
+    switch (field) {
+      case FIELD_BASIC_PROPERTIES_CONTENTTYPE:
+        return basicProperties.getContentType();
+      case FIELD_BASIC_PROPERTIES_CONTENTENCODING:
+        return basicProperties.getContentEncoding();
+      case FIELD_BASIC_PROPERTIES_DELIVERYMODE:
+        return basicProperties.getDeliveryMode();
+      case FIELD_BASIC_PROPERTIES_PRIORITY:
+        return basicProperties.getPriority();
+      case FIELD_BASIC_PROPERTIES_CORRELATIONID:
+        return basicProperties.getCorrelationId();
+      case FIELD_BASIC_PROPERTIES_REPLYTO:
+        return basicProperties.getReplyTo();
+      case FIELD_BASIC_PROPERTIES_EXPIRATION:
+        return basicProperties.getExpiration();
+      case FIELD_BASIC_PROPERTIES_MESSAGEID:
+        return basicProperties.getMessageId();
+      case FIELD_BASIC_PROPERTIES_TIMESTAMP:
+        return basicProperties.getTimestamp();
+      case FIELD_BASIC_PROPERTIES_TYPE:
+        return basicProperties.getType();
+      case FIELD_BASIC_PROPERTIES_USERID:
+        return basicProperties.getUserId();
+      case FIELD_BASIC_PROPERTIES_APPID:
+        return basicProperties.getAppId();
+      default:
+        throw new DataException(String.format("'%s' is not a BasicProperties field.", field));
+    }
+  }
+
+  static void addRecordHeader(Headers headers, String key, Object value) {
+    if (null == value) {
+      return;
+    }
+    if (value instanceof String) {
+      headers.addString(key, (String) value);
+    } else if (value instanceof LongString) {
+      // Passed through as bytes, without decoding.
+      headers.addBytes(key, ((LongString) value).getBytes());
+    } else if (value instanceof Integer) {
+      headers.addInt(key, (Integer) value);
+    } else if (value instanceof Long) {
+      headers.addLong(key, (Long) value);
+    } else if (value instanceof Boolean) {
+      headers.addBoolean(key, (Boolean) value);
+    } else if (value instanceof Short) {
+      headers.addShort(key, (Short) value);
+    } else if (value instanceof Byte) {
+      headers.addByte(key, (Byte) value);
+    } else if (value instanceof Double) {
+      headers.addDouble(key, (Double) value);
+    } else if (value instanceof Float) {
+      headers.addFloat(key, (Float) value);
+    } else if (value instanceof Date) {
+      headers.addTimestamp(key, (Date) value);
+    } else if (value instanceof BigDecimal) {
+      headers.addDecimal(key, (BigDecimal) value);
+    } else if (value instanceof byte[]) {
+      headers.addBytes(key, (byte[]) value);
+    } else if (value instanceof List || value instanceof Map) {
+      // Field arrays and tables such as x-death have no record header type, they are left out.
+      log.trace("addRecordHeader() - Skipping nested header '{}'.", key);
+    } else {
+      throw new DataException(
+          String.format("Could not determine the type for header '%s' type '%s'", key, value.getClass().getName())
+      );
+    }
+  }
+
+  /**
+   * Maps the AMQP headers, and the requested BasicProperties fields, to Kafka record headers.
+   *
+   * @param basicProperties properties of the delivery.
+   * @param properties      BasicProperties fields to add as amqp.&lt;field&gt; headers.
+   * @return Kafka record headers.
+   */
+  static Headers recordHeaders(BasicProperties basicProperties, List<String> properties) {
+    Headers headers = new ConnectHeaders();
+    if (null == basicProperties) {
+      return headers;
+    }
+    final Map<String, Object> input = basicProperties.getHeaders();
+    if (null != input) {
+      for (Map.Entry<String, Object> kvp : input.entrySet()) {
+        addRecordHeader(headers, kvp.getKey(), kvp.getValue());
+      }
+    }
+    for (String property : properties) {
+      addRecordHeader(headers, RECORD_HEADER_PROPERTY_PREFIX + property, basicProperty(basicProperties, property));
+    }
+    return headers;
+  }
+
   static final String FIELD_MESSAGE_BODY = "body";
   static final String FIELD_MESSAGE_CONSUMERTAG = "consumerTag";
   static final String FIELD_MESSAGE_ENVELOPE = "envelope";
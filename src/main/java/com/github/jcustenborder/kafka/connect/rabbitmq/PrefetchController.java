@@ -0,0 +1,160 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.rabbitmq;
+
+import org.apache.kafka.common.utils.Time;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * Additive increase / multiplicative decrease of the prefetch count of a single consumer. Evaluated from the
+ * polling thread:
+ * <ul>
+ * <li>When the buffer is nearly full Kafka is not keeping up, the prefetch is halved.</li>
+ * <li>When the buffer is nearly empty while the consumer has used up its prefetch, the broker is waiting on
+ * acknowledgements that are still on their way through Kafka. The prefetch grows by a fixed step.</li>
+ * </ul>
+ * RabbitMQ only applies a per consumer prefetch to consumers started after it was set, so a new prefetch is applied
+ * by cancelling the consumer and consuming again. The deliveries of the cancelled consumer stay unacknowledged on the
+ * channel and do not count against the window of the new one, so it is only started once they were all
+ * acknowledged. Otherwise the channel would hold more than rabbitmq.prefetch.max unacknowledged deliveries. Only a
+ * global prefetch, which quorum queues and streams do not support, changes for the running consumer.
+ */
+class PrefetchController {
+  private static final Logger log = LoggerFactory.getLogger(PrefetchController.class);
+  static final double BUFFER_HIGH = 0.75D;
+  static final double BUFFER_LOW = 0.25D;
+
+  final ConnectConsumer consumer;
+  final RecordBuffer records;
+  final RabbitMQSourceConnectorConfig config;
+  final Consume consume;
+  final Time time;
+  final int step;
+  private long lastAdjusted;
+  /**
+   * Prefetch count the cancelled consumer is started with once its deliveries were acknowledged, 0 if none.
+   */
+  private int pendingPrefetchCount;
+
+  /**
+   * Starts a cancelled consumer again, see {@link RabbitMQSourceTask#consume(ConnectConsumer)}.
+   */
+  interface Consume {
+    void consume(ConnectConsumer consumer) throws IOException;
+  }
+
+  PrefetchController(ConnectConsumer consumer, RecordBuffer records, RabbitMQSourceConnectorConfig config, Consume consume, Time time) {
+    this.consumer = consumer;
+    this.records = records;
+    this.config = config;
+    this.consume = consume;
+    this.time = time;
+    this.step = Math.max(1, (config.prefetchMax - config.prefetchMin) / 20);
+    this.lastAdjusted = time.milliseconds();
+  }
+
+  /**
+   * @return the prefetch count for the next interval given the current one.
+   */
+  int next(int prefetchCount, int buffered, int bufferCapacity, long unacknowledged) {
+    final double occupancy = buffered / (double) Math.max(1, bufferCapacity);
+    if (occupancy >= BUFFER_HIGH) {
+      return Math.max(this.config.prefetchMin, prefetchCount / 2);
+    }
+    final long starved = prefetchCount - Math.max(1, prefetchCount / 10);
+    if (occupancy <= BUFFER_LOW && unacknowledged >= starved) {
+      return Math.min(this.config.prefetchMax, prefetchCount + this.step);
+    }
+    return prefetchCount;
+  }
+
+  /**
+   * Re-issues basicQos if the interval has elapsed and the prefetch count should change.
+   *
+   * @throws IOException thrown if basicQos fails.
+   */
+  void maybeAdjust() throws IOException {
+    if (pending()) {
+      maybeResume();
+      return;
+    }
+    final long now = this.time.milliseconds();
+    if (now - this.lastAdjusted < this.config.prefetchAdaptiveIntervalMs) {
+      return;
+    }
+    this.lastAdjusted = now;
+    final int prefetchCount = this.consumer.prefetchCount;
+    final int next = next(
+        prefetchCount,
+        this.records.size(),
+        this.records.maxRecords(),
+        this.consumer.lastDeliveryTag - this.consumer.acks.acked()
+    );
+    if (next != prefetchCount) {
+      log.debug("maybeAdjust() - Channel {} prefetch {} -> {}", this.consumer.channel.getChannelNumber(), prefetchCount, next);
+      apply(next);
+    }
+  }
+
+  void apply(int prefetchCount) throws IOException {
+    if (this.config.prefetchGlobal) {
+      this.consumer.channel.basicQos(prefetchCount, true);
+      prefetchCount(prefetchCount);
+      return;
+    }
+    this.consumer.cancel();
+    this.pendingPrefetchCount = prefetchCount;
+    maybeResume();
+  }
+
+  /**
+   * @return true while the consumer is cancelled waiting for its deliveries to be acknowledged. The task does not
+   * start it when it resumes from inflight.max.bytes.
+   */
+  boolean pending() {
+    return 0 != this.pendingPrefetchCount;
+  }
+
+  /**
+   * Starts the cancelled consumer with the new prefetch once every delivery of the channel was acknowledged. A
+   * consumer paused by inflight.max.bytes picks the prefetch up when it resumes.
+   *
+   * @throws IOException thrown if basicQos fails or the consumer could not be started.
+   */
+  void maybeResume() throws IOException {
+    final long unacknowledged = this.consumer.lastDeliveryTag - this.consumer.acks.acked();
+    if (unacknowledged > 0L) {
+      log.trace("maybeResume() - Channel {} has {} unacknowledged deliveries.", this.consumer.channel.getChannelNumber(), unacknowledged);
+      return;
+    }
+    final int prefetchCount = this.pendingPrefetchCount;
+    this.pendingPrefetchCount = 0;
+    this.consumer.channel.basicQos(prefetchCount, false);
+    prefetchCount(prefetchCount);
+    final InFlightBytes inFlight = this.consumer.inFlight;
+    if (null == this.consumer.consumerTag && (null == inFlight || !inFlight.paused)) {
+      this.consume.consume(this.consumer);
+    }
+  }
+
+  private void prefetchCount(int prefetchCount) {
+    this.consumer.prefetchCount = prefetchCount;
+    this.consumer.acks.maxPending(this.config.ackMaxPending(prefetchCount));
+  }
+}
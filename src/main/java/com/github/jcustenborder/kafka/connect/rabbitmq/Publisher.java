@@ -0,0 +1,69 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.rabbitmq;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.MessageProperties;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.errors.ConnectException;
+
+import java.io.IOException;
+
+/**
+ * A publishing channel in confirm mode together with the confirms that are outstanding on it.
+ */
+class Publisher {
+  /**
+   * Messages are published as persistent, confirms only guarantee they were written to disk when they are.
+   */
+  static final AMQP.BasicProperties BASIC_PROPERTIES = MessageProperties.PERSISTENT_BASIC;
+
+  final Channel channel;
+  final PublisherConfirms confirms;
+  final String exchange;
+  final String routingKey;
+
+  Publisher(Channel channel, RabbitMQSinkConnectorConfig config) throws IOException {
+    this.channel = channel;
+    this.exchange = config.exchange;
+    this.routingKey = config.routingKey;
+    this.confirms = new PublisherConfirms(config.confirmWindow, config.confirmTimeoutMs);
+    this.channel.confirmSelect();
+    this.channel.addConfirmListener(this.confirms);
+    this.channel.addShutdownListener(this.confirms::shutdown);
+  }
+
+  /**
+   * Publishes a message without waiting for it to be confirmed, blocking only while the confirm window is full.
+   *
+   * @param topicPartition partition of the record.
+   * @param offset         offset of the record.
+   * @param body           message body.
+   * @throws InterruptedException if interrupted while waiting for the confirm window.
+   */
+  void publish(TopicPartition topicPartition, long offset, byte[] body) throws InterruptedException {
+    // Registered before publishing, the confirm can arrive before basicPublish returns.
+    final long sequenceNumber = this.channel.getNextPublishSeqNo();
+    this.confirms.published(sequenceNumber, topicPartition, offset);
+    try {
+      this.channel.basicPublish(this.exchange, this.routingKey, BASIC_PROPERTIES, body);
+    } catch (IOException e) {
+      this.confirms.fail("Exception thrown while publishing on channel " + this.channel.getChannelNumber() + ": " + e.getMessage());
+      throw new ConnectException(e);
+    }
+  }
+}
@@ -0,0 +1,213 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.rabbitmq;
+
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.ShutdownSignalException;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.errors.ConnectException;
+import org.apache.kafka.connect.errors.RetriableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the messages a {@link RabbitMQSinkTask} has published and that have not been confirmed by the broker yet,
+ * keyed by publish sequence number. Confirms with multiple = true remove a whole range of sequence numbers at once.
+ * <p>
+ * The offset that is safe to commit for a partition is the offset of its oldest unconfirmed message. Once everything
+ * for a partition is confirmed it is the offset after the last published message. Nacked messages are never
+ * removed so the offsets of a partition cannot advance past them.
+ */
+class PublisherConfirms implements ConfirmListener {
+  private static final Logger log = LoggerFactory.getLogger(PublisherConfirms.class);
+
+  static class Outstanding {
+    final TopicPartition topicPartition;
+    final long offset;
+
+    Outstanding(TopicPartition topicPartition, long offset) {
+      this.topicPartition = topicPartition;
+      this.offset = offset;
+    }
+  }
+
+  final int window;
+  final long timeoutMs;
+  private final TreeMap<Long, Outstanding> outstanding = new TreeMap<>();
+  /**
+   * Offset after the last message published for each partition.
+   */
+  private final Map<TopicPartition, Long> published = new HashMap<>();
+  private long confirmed;
+  private String failure;
+
+  /**
+   * @param window    maximum number of unconfirmed messages.
+   * @param timeoutMs how long {@link #published(long, TopicPartition, long)} waits for the window to open up.
+   */
+  PublisherConfirms(int window, long timeoutMs) {
+    this.window = window;
+    this.timeoutMs = timeoutMs;
+  }
+
+  /**
+   * Registers a message before it is published, blocking while the window is full.
+   *
+   * @param sequenceNumber value of Channel.getNextPublishSeqNo() before publishing.
+   * @param topicPartition partition the record came from.
+   * @param offset         offset of the record.
+   * @throws InterruptedException if interrupted while waiting for confirms.
+   * @throws RetriableException   if the window did not open up within the timeout.
+   * @throws ConnectException     if a message was nacked or the channel was closed.
+   */
+  synchronized void published(long sequenceNumber, TopicPartition topicPartition, long offset) throws InterruptedException {
+    checkFailure();
+    long remaining = TimeUnit.MILLISECONDS.toNanos(this.timeoutMs);
+    final long deadline = System.nanoTime() + remaining;
+    while (this.outstanding.size() >= this.window) {
+      if (remaining <= 0L) {
+        throw new RetriableException(
+            String.format("Timed out after %s ms waiting for %s unconfirmed messages to be confirmed.", this.timeoutMs, this.outstanding.size())
+        );
+      }
+      TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      checkFailure();
+      remaining = deadline - System.nanoTime();
+    }
+    this.outstanding.put(sequenceNumber, new Outstanding(topicPartition, offset));
+    this.published.merge(topicPartition, offset + 1L, Math::max);
+  }
+
+  @Override
+  public synchronized void handleAck(long deliveryTag, boolean multiple) {
+    log.trace("handleAck({}, {})", deliveryTag, multiple);
+    if (multiple) {
+      final NavigableMap<Long, Outstanding> confirmed = this.outstanding.headMap(deliveryTag, true);
+      this.confirmed += confirmed.size();
+      confirmed.clear();
+    } else if (null != this.outstanding.remove(deliveryTag)) {
+      this.confirmed++;
+    }
+    notifyAll();
+  }
+
+  @Override
+  public synchronized void handleNack(long deliveryTag, boolean multiple) {
+    log.error("handleNack({}, {}) - Broker could not accept published messages.", deliveryTag, multiple);
+    fail(String.format("RabbitMQ nacked the message(s) published with sequence number %s (multiple = %s).", deliveryTag, multiple));
+  }
+
+  void shutdown(ShutdownSignalException cause) {
+    synchronized (this) {
+      if (!this.outstanding.isEmpty()) {
+        fail(String.format("Channel was closed with %s unconfirmed messages: %s", this.outstanding.size(), cause.getMessage()));
+      }
+    }
+  }
+
+  /**
+   * Fails the task, the messages that are still outstanding hold the offsets of their partitions back.
+   *
+   * @param message reason for the failure.
+   */
+  synchronized void fail(String message) {
+    if (null == this.failure) {
+      this.failure = message;
+    }
+    notifyAll();
+  }
+
+  private void checkFailure() {
+    if (null != this.failure) {
+      throw new ConnectException(this.failure);
+    }
+  }
+
+  /**
+   * @param currentOffsets offsets of the records handed to put() so far.
+   * @return offsets that are confirmed for the partitions in currentOffsets.
+   */
+  Map<TopicPartition, OffsetAndMetadata> committable(Map<TopicPartition, OffsetAndMetadata> currentOffsets) {
+    return committable(Collections.singletonList(this), currentOffsets);
+  }
+
+  /**
+   * Combines the confirms of several channels that records of the same partition may have been published on.
+   *
+   * @param channels       confirms of each publishing channel.
+   * @param currentOffsets offsets of the records handed to put() so far.
+   * @return offsets that are confirmed on every channel for the partitions in currentOffsets.
+   */
+  static Map<TopicPartition, OffsetAndMetadata> committable(Collection<PublisherConfirms> channels, Map<TopicPartition, OffsetAndMetadata> currentOffsets) {
+    final Map<TopicPartition, Long> unconfirmed = new HashMap<>();
+    final Map<TopicPartition, Long> published = new HashMap<>();
+    for (PublisherConfirms confirms : channels) {
+      confirms.offsets(unconfirmed, published);
+    }
+    final Map<TopicPartition, OffsetAndMetadata> result = new HashMap<>(currentOffsets.size());
+    for (TopicPartition topicPartition : currentOffsets.keySet()) {
+      Long offset = unconfirmed.get(topicPartition);
+      if (null == offset) {
+        offset = published.get(topicPartition);
+      }
+      if (null != offset) {
+        result.put(topicPartition, new OffsetAndMetadata(offset));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Merges the oldest unconfirmed offset and the offset after the last published message of each partition into
+   * the supplied maps.
+   */
+  private synchronized void offsets(Map<TopicPartition, Long> unconfirmed, Map<TopicPartition, Long> published) {
+    for (Outstanding message : this.outstanding.values()) {
+      unconfirmed.merge(message.topicPartition, message.offset, Math::min);
+    }
+    for (Map.Entry<TopicPartition, Long> entry : this.published.entrySet()) {
+      published.merge(entry.getKey(), entry.getValue(), Math::max);
+    }
+  }
+
+  /**
+   * Forgets the published offsets of partitions that are no longer assigned to the task.
+   *
+   * @param partitions partitions that were closed.
+   */
+  synchronized void close(Collection<TopicPartition> partitions) {
+    for (TopicPartition partition : partitions) {
+      this.published.remove(partition);
+    }
+  }
+
+  synchronized int outstanding() {
+    return this.outstanding.size();
+  }
+
+  synchronized long confirmed() {
+    return this.confirmed;
+  }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.rabbitmq;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns queues to tasks. A queue can be given a weight, to balance busy queues against quiet ones, and a
+ * number of replicas, to have several tasks consume from the same busy queue as competing consumers.
+ */
+class QueueAssignor {
+  enum Strategy {
+    /**
+     * Every task consumes from every queue.
+     */
+    ALL,
+    /**
+     * Queues are dealt out to the tasks in the order they are configured.
+     */
+    ROUND_ROBIN,
+    /**
+     * Queues are assigned heaviest first to the task with the lowest total weight.
+     */
+    WEIGHTED
+  }
+
+  static class Slot {
+    final String queue;
+    final double weight;
+
+    Slot(String queue, double weight) {
+      this.queue = queue;
+      this.weight = weight;
+    }
+  }
+
+  /**
+   * @param strategy strategy to assign queues with.
+   * @param queues   queues to assign.
+   * @param weights  weight per queue. Queues that are not present have a weight of 1.
+   * @param replicas number of tasks to consume each queue from. Queues that are not present are consumed by one task.
+   * @param maxTasks maximum number of tasks.
+   * @return the queues for each task. Fewer than maxTasks are returned if there are not enough queues.
+   */
+  static List<List<String>> assign(Strategy strategy, List<String> queues, Map<String, Integer> weights, Map<String, Integer> replicas, int maxTasks) {
+    if (Strategy.ALL == strategy) {
+      return Collections.nCopies(maxTasks, queues);
+    }
+
+    List<Slot> slots = new ArrayList<>();
+    for (String queue : queues) {
+      final int count = Math.min(replicas.getOrDefault(queue, 1), maxTasks);
+      final double weight = (double) weights.getOrDefault(queue, 1) / count;
+      for (int i = 0; i < count; i++) {
+        slots.add(new Slot(queue, weight));
+      }
+    }
+
+    final int taskCount = Math.min(maxTasks, slots.size());
+    List<List<String>> assignments = new ArrayList<>(taskCount);
+    double[] load = new double[taskCount];
+    for (int i = 0; i < taskCount; i++) {
+      assignments.add(new ArrayList<>());
+    }
+
+    if (Strategy.WEIGHTED == strategy) {
+      // List.sort is stable so queues with the same weight keep the configured order.
+      slots.sort(Comparator.comparingDouble((Slot slot) -> slot.weight).reversed());
+    }
+
+    for (int i = 0; i < slots.size(); i++) {
+      final Slot slot = slots.get(i);
+      int task = -1;
+      if (Strategy.ROUND_ROBIN == strategy) {
+        // Replicas of a queue are adjacent, and never more than the number of tasks, so they land on different tasks.
+        task = i % taskCount;
+      } else {
+        for (int t = 0; t < taskCount; t++) {
+          if (assignments.get(t).contains(slot.queue)) {
+            continue;
+          }
+          if (-1 == task || load[t] < load[task]) {
+            task = t;
+          }
+        }
+      }
+      assignments.get(task).add(slot.queue);
+      load[task] += slot.weight;
+    }
+
+    return assignments;
+  }
+}
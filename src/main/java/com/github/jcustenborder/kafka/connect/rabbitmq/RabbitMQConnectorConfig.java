@@ -15,11 +15,18 @@
  */
 package com.github.jcustenborder.kafka.connect.rabbitmq;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.rabbitmq.client.ConnectionFactory;
 import org.apache.kafka.common.config.AbstractConfig;
 import org.apache.kafka.common.config.ConfigDef;
+import org.apache.kafka.common.config.ConfigException;
+import org.apache.kafka.connect.errors.ConnectException;
 
+import java.lang.reflect.Method;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 class RabbitMQConnectorConfig extends AbstractConfig {
   public static final String USERNAME_CONFIG = "rabbitmq.username";
@@ -36,6 +43,8 @@ class RabbitMQConnectorConfig extends AbstractConfig {
   public static final String NETWORK_RECOVERY_INTERVAL_CONFIG = "rabbitmq.network.recovery.interval.ms";
   public static final String HOST_CONFIG = "rabbitmq.host";
   public static final String PORT_CONFIG = "rabbitmq.port";
+  public static final String CONSUMER_DISPATCH_CONFIG = "rabbitmq.consumer.dispatch";
+  public static final String CONSUMER_DISPATCH_THREADS_CONFIG = "rabbitmq.consumer.dispatch.threads";
   static final String HOST_DOC = "The RabbitMQ host to connect to. See `ConnectionFactory.setHost(java.lang.String) <https://www.rabbitmq.com/releases/rabbitmq-java-client/current-javadoc/com/rabbitmq/client/ConnectionFactory.html#setHost-java.lang.String->`_";
   static final String USERNAME_DOC = "The username to authenticate to RabbitMQ with. See `ConnectionFactory.setUsername(java.lang.String) <https://www.rabbitmq.com/releases/rabbitmq-java-client/current-javadoc/com/rabbitmq/client/ConnectionFactory.html#setUsername-java.lang.String->`_";
   static final String PASSWORD_DOC = "The password to authenticate to RabbitMQ with. See `ConnectionFactory.setPassword(java.lang.String) <https://www.rabbitmq.com/releases/rabbitmq-java-client/current-javadoc/com/rabbitmq/client/ConnectionFactory.html#setPassword-java.lang.String->`_";
@@ -58,6 +67,29 @@ class RabbitMQConnectorConfig extends AbstractConfig {
   static final String TOPOLOGY_RECOVERY_ENABLED_DOC = "Enables or disables topology recovery. See `ConnectionFactory.setTopologyRecoveryEnabled(boolean) <https://www.rabbitmq.com/releases/rabbitmq-java-client/current-javadoc/com/rabbitmq/client/ConnectionFactory.html#setTopologyRecoveryEnabled-boolean->`_";
   static final String NETWORK_RECOVERY_INTERVAL_DOC = "See `ConnectionFactory.setNetworkRecoveryInterval(long) <https://www.rabbitmq.com/releases/rabbitmq-java-client/current-javadoc/com/rabbitmq/client/ConnectionFactory.html#setNetworkRecoveryInterval-long->`_";
   static final String PORT_DOC = "The RabbitMQ port to connect to. See `ConnectionFactory.setPort(int) <https://www.rabbitmq.com/releases/rabbitmq-java-client/current-javadoc/com/rabbitmq/client/ConnectionFactory.html#setPort-int->`_";
+  static final String CONSUMER_DISPATCH_DOC = "The executor the client runs consumer callbacks on, records are " +
+      "converted on these threads. Deliveries for a channel are always handled one at a time and in order, consumers " +
+      "on separate channels run in parallel up to the number of threads. `DEFAULT` uses the client's own pool. " +
+      "`FIXED` uses a pool of `" + CONSUMER_DISPATCH_THREADS_CONFIG + "` threads. `VIRTUAL` starts a virtual thread " +
+      "per task and requires Java 21 or later. `CHANNEL` uses a pool with one thread per consumer channel so no " +
+      "channel waits for another to release a thread. " +
+      "See `ConnectionFactory.newConnection(java.util.concurrent.ExecutorService) <https://www.rabbitmq.com/releases/rabbitmq-java-client/current-javadoc/com/rabbitmq/client/ConnectionFactory.html#newConnection-java.util.concurrent.ExecutorService->`_";
+  static final String CONSUMER_DISPATCH_THREADS_DOC = "The number of threads for `" + CONSUMER_DISPATCH_CONFIG +
+      "` FIXED. 0 uses the number of available processors.";
+
+  /**
+   * Executors#newVirtualThreadPerTaskExecutor on Java 21 or later, otherwise null. Looked up reflectively so the
+   * connector still runs on Java 8.
+   */
+  static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = newVirtualThreadPerTaskExecutor();
+
+  public enum ConsumerDispatch {
+    DEFAULT,
+    FIXED,
+    VIRTUAL,
+    CHANNEL
+  }
+
   public final String username;
   public final String password;
   public final String virtualHost;
@@ -72,6 +104,8 @@ class RabbitMQConnectorConfig extends AbstractConfig {
   public final long networkRecoveryInterval;
   public final String host;
   public final int port;
+  public final ConsumerDispatch consumerDispatch;
+  public final int consumerDispatchThreads;
   public final ConnectionFactory connectionFactory;
 
 
@@ -91,6 +125,12 @@ class RabbitMQConnectorConfig extends AbstractConfig {
     this.networkRecoveryInterval = this.getInt(NETWORK_RECOVERY_INTERVAL_CONFIG);
     this.host = this.getString(HOST_CONFIG);
     this.port = this.getInt(PORT_CONFIG);
+    this.consumerDispatch = ConsumerDispatch.valueOf(this.getString(CONSUMER_DISPATCH_CONFIG));
+    this.consumerDispatchThreads = this.getInt(CONSUMER_DISPATCH_THREADS_CONFIG) > 0 ?
+        this.getInt(CONSUMER_DISPATCH_THREADS_CONFIG) : Runtime.getRuntime().availableProcessors();
+    if (ConsumerDispatch.VIRTUAL == this.consumerDispatch && null == NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR) {
+      throw new ConfigException(CONSUMER_DISPATCH_CONFIG, this.consumerDispatch.name(), "Virtual threads require Java 21 or later.");
+    }
 
     this.connectionFactory = connectionFactory();
   }
@@ -110,7 +150,17 @@ class RabbitMQConnectorConfig extends AbstractConfig {
         .define(AUTOMATIC_RECOVERY_ENABLED_CONFIG, ConfigDef.Type.BOOLEAN, true, ConfigDef.Importance.LOW, AUTOMATIC_RECOVERY_ENABLED_DOC)
         .define(TOPOLOGY_RECOVERY_ENABLED_CONFIG, ConfigDef.Type.BOOLEAN, true, ConfigDef.Importance.LOW, TOPOLOGY_RECOVERY_ENABLED_DOC)
         .define(NETWORK_RECOVERY_INTERVAL_CONFIG, ConfigDef.Type.INT, 10000, ConfigDef.Importance.LOW, NETWORK_RECOVERY_INTERVAL_DOC)
-        .define(PORT_CONFIG, ConfigDef.Type.INT, ConnectionFactory.DEFAULT_AMQP_PORT, ConfigDef.Importance.MEDIUM, PORT_DOC);
+        .define(PORT_CONFIG, ConfigDef.Type.INT, ConnectionFactory.DEFAULT_AMQP_PORT, ConfigDef.Importance.MEDIUM, PORT_DOC)
+        .define(CONSUMER_DISPATCH_CONFIG, ConfigDef.Type.STRING, ConsumerDispatch.DEFAULT.name(),
+            ConfigDef.ValidString.in(
+                ConsumerDispatch.DEFAULT.name(),
+                ConsumerDispatch.FIXED.name(),
+                ConsumerDispatch.VIRTUAL.name(),
+                ConsumerDispatch.CHANNEL.name()
+            ),
+            ConfigDef.Importance.LOW, CONSUMER_DISPATCH_DOC)
+        .define(CONSUMER_DISPATCH_THREADS_CONFIG, ConfigDef.Type.INT, 0, ConfigDef.Range.atLeast(0),
+            ConfigDef.Importance.LOW, CONSUMER_DISPATCH_THREADS_DOC);
   }
 
   final ConnectionFactory connectionFactory() {
@@ -133,4 +183,43 @@ class RabbitMQConnectorConfig extends AbstractConfig {
     return connectionFactory;
   }
 
+  /**
+   * Creates the executor for consumer callbacks. The client does not shut down an executor it was given, the
+   * caller has to once the connection is closed.
+   *
+   * @param channels number of consumer channels that will share the executor.
+   * @return the executor to pass to newConnection or null to use the client's own pool.
+   */
+  ExecutorService consumerDispatchExecutor(int channels) {
+    switch (this.consumerDispatch) {
+      case FIXED:
+        return Executors.newFixedThreadPool(this.consumerDispatchThreads, dispatchThreadFactory());
+      case CHANNEL:
+        return Executors.newFixedThreadPool(Math.max(1, channels), dispatchThreadFactory());
+      case VIRTUAL:
+        try {
+          return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+        } catch (ReflectiveOperationException e) {
+          throw new ConnectException("Could not create virtual thread executor.", e);
+        }
+      default:
+        return null;
+    }
+  }
+
+  static ThreadFactory dispatchThreadFactory() {
+    return new ThreadFactoryBuilder()
+        .setNameFormat("rabbitmq-dispatch-%d")
+        .setDaemon(true)
+        .build();
+  }
+
+  private static Method newVirtualThreadPerTaskExecutor() {
+    try {
+      return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
 }
@@ -0,0 +1,92 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.rabbitmq;
+
+import org.apache.kafka.common.config.ConfigDef;
+
+import java.util.Map;
+
+class RabbitMQSinkConnectorConfig extends RabbitMQConnectorConfig {
+  public static final String TOPICS_CONF = "topics";
+  static final String TOPICS_DOC = "Kafka topic to read the messages from.";
+
+  public static final String EXCHANGE_CONF = "rabbitmq.exchange";
+  static final String EXCHANGE_DOC = "exchange to publish the messages on.";
+
+  public static final String ROUTING_KEY_CONF = "rabbitmq.routing.key";
+  static final String ROUTING_KEY_DOC = "routing key used for publishing the messages.";
+
+  public static final String CONFIRM_WINDOW_CONF = "rabbitmq.publisher.confirm.window";
+  static final String CONFIRM_WINDOW_DOC = "The maximum number of published messages that have not been confirmed by " +
+      "RabbitMQ yet. put() blocks once the window is full. Offsets are only committed once the broker has confirmed " +
+      "the messages.";
+
+  public static final String CONFIRM_TIMEOUT_MS_CONF = "rabbitmq.publisher.confirm.timeout.ms";
+  static final String CONFIRM_TIMEOUT_MS_DOC = "How long put() waits for the confirm window to open up before the " +
+      "batch is retried.";
+
+  public static final String PUBLISHER_CHANNELS_CONF = "rabbitmq.publisher.channels";
+  static final String PUBLISHER_CHANNELS_DOC = "The number of channels each task publishes on. Each channel has its own " +
+      "confirm window. Records are assigned to a channel by `rabbitmq.publisher.sharding` so the order of records " +
+      "that share a shard key is kept.";
+
+  public static final String PUBLISHER_CONNECTIONS_CONF = "rabbitmq.publisher.connections";
+  static final String PUBLISHER_CONNECTIONS_DOC = "The number of connections each task opens. The publishing channels " +
+      "are spread over them round robin.";
+
+  public static final String PUBLISHER_SHARDING_CONF = "rabbitmq.publisher.sharding";
+  static final String PUBLISHER_SHARDING_DOC = "How records are assigned to a publishing channel. `PARTITION` keeps all " +
+      "records of a Kafka partition on one channel. `KEY` hashes the record key, records without a key are assigned " +
+      "by partition.";
+
+  enum Sharding {
+    PARTITION,
+    KEY
+  }
+
+  public final String exchange;
+  public final String routingKey;
+  public final int confirmWindow;
+  public final long confirmTimeoutMs;
+  public final int publisherChannels;
+  public final int publisherConnections;
+  public final Sharding publisherSharding;
+
+  public RabbitMQSinkConnectorConfig(Map<String, String> settings) {
+    super(config(), settings);
+    this.exchange = this.getString(EXCHANGE_CONF);
+    this.routingKey = this.getString(ROUTING_KEY_CONF);
+    this.confirmWindow = this.getInt(CONFIRM_WINDOW_CONF);
+    this.confirmTimeoutMs = this.getLong(CONFIRM_TIMEOUT_MS_CONF);
+    this.publisherChannels = this.getInt(PUBLISHER_CHANNELS_CONF);
+    this.publisherConnections = Math.min(this.getInt(PUBLISHER_CONNECTIONS_CONF), this.publisherChannels);
+    this.publisherSharding = Sharding.valueOf(this.getString(PUBLISHER_SHARDING_CONF));
+  }
+
+  public static ConfigDef config() {
+    return RabbitMQConnectorConfig.config()
+        .define(TOPICS_CONF, ConfigDef.Type.LIST, ConfigDef.Importance.HIGH, TOPICS_DOC)
+        .define(EXCHANGE_CONF, ConfigDef.Type.STRING, ConfigDef.Importance.HIGH, EXCHANGE_DOC)
+        .define(ROUTING_KEY_CONF, ConfigDef.Type.STRING, ConfigDef.Importance.HIGH, ROUTING_KEY_DOC)
+        .define(CONFIRM_WINDOW_CONF, ConfigDef.Type.INT, 10000, ConfigDef.Range.atLeast(1), ConfigDef.Importance.MEDIUM, CONFIRM_WINDOW_DOC)
+        .define(CONFIRM_TIMEOUT_MS_CONF, ConfigDef.Type.LONG, 30000L, ConfigDef.Range.atLeast(0L), ConfigDef.Importance.LOW, CONFIRM_TIMEOUT_MS_DOC)
+        .define(PUBLISHER_CHANNELS_CONF, ConfigDef.Type.INT, 1, ConfigDef.Range.atLeast(1), ConfigDef.Importance.MEDIUM, PUBLISHER_CHANNELS_DOC)
+        .define(PUBLISHER_CONNECTIONS_CONF, ConfigDef.Type.INT, 1, ConfigDef.Range.atLeast(1), ConfigDef.Importance.LOW, PUBLISHER_CONNECTIONS_DOC)
+        .define(PUBLISHER_SHARDING_CONF, ConfigDef.Type.STRING, Sharding.PARTITION.name(),
+            ConfigDef.ValidString.in(Sharding.PARTITION.name(), Sharding.KEY.name()),
+            ConfigDef.Importance.LOW, PUBLISHER_SHARDING_DOC);
+  }
+}
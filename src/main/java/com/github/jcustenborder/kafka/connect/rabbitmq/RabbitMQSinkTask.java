@@ -0,0 +1,170 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.rabbitmq;
+
+import com.github.jcustenborder.kafka.connect.utils.VersionUtil;
+import com.rabbitmq.client.Connection;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.errors.ConnectException;
+import org.apache.kafka.connect.errors.DataException;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.apache.kafka.connect.sink.SinkTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Publishes records with publisher confirms. Publishing does not wait for the confirms, up to
+ * rabbitmq.publisher.confirm.window messages can be unconfirmed on each channel. Offsets only advance in preCommit()
+ * once the broker has confirmed the messages.
+ * <p>
+ * Records are spread over rabbitmq.publisher.channels channels by partition or key, so records that share a shard
+ * are published in order on the same channel.
+ */
+public class RabbitMQSinkTask extends SinkTask {
+  private static final Logger log = LoggerFactory.getLogger(RabbitMQSinkTask.class);
+
+  RabbitMQSinkConnectorConfig config;
+  List<Connection> connections;
+  List<Publisher> publishers;
+  List<PublisherConfirms> confirms;
+
+  @Override
+  public String version() {
+    return VersionUtil.version(this.getClass());
+  }
+
+  @Override
+  public void start(Map<String, String> settings) {
+    this.config = new RabbitMQSinkConnectorConfig(settings);
+    this.connections = new ArrayList<>(this.config.publisherConnections);
+    this.publishers = new ArrayList<>(this.config.publisherChannels);
+    this.confirms = new ArrayList<>(this.config.publisherChannels);
+    try {
+      for (int i = 0; i < this.config.publisherConnections; i++) {
+        log.info("Opening connection {} to {}:{}/{}", i, this.config.host, this.config.port, this.config.virtualHost);
+        this.connections.add(newConnection());
+      }
+      for (int i = 0; i < this.config.publisherChannels; i++) {
+        final Connection connection = this.connections.get(i % this.connections.size());
+        Publisher publisher = new Publisher(connection.createChannel(), this.config);
+        this.publishers.add(publisher);
+        this.confirms.add(publisher.confirms);
+      }
+    } catch (IOException | TimeoutException e) {
+      throw new ConnectException(e);
+    }
+  }
+
+  Connection newConnection() throws IOException, TimeoutException {
+    return this.config.connectionFactory().newConnection();
+  }
+
+  static byte[] body(SinkRecord record) {
+    final Object value = record.value();
+    if (value instanceof byte[]) {
+      return (byte[]) value;
+    } else if (value instanceof String) {
+      return ((String) value).getBytes(StandardCharsets.UTF_8);
+    } else if (value instanceof ByteBuffer) {
+      final ByteBuffer buffer = ((ByteBuffer) value).duplicate();
+      final byte[] result = new byte[buffer.remaining()];
+      buffer.get(result);
+      return result;
+    }
+    throw new DataException(
+        String.format(
+            "Value for %s-%s:%s must be bytes or a string, use the ByteArrayConverter or StringConverter. Found %s.",
+            record.topic(),
+            record.kafkaPartition(),
+            record.kafkaOffset(),
+            null == value ? "null" : value.getClass().getName()
+        )
+    );
+  }
+
+  /**
+   * @return index of the channel the record is published on.
+   */
+  static int shard(RabbitMQSinkConnectorConfig.Sharding sharding, SinkRecord record, TopicPartition topicPartition, int channels) {
+    if (1 == channels) {
+      return 0;
+    }
+    final Object key = record.key();
+    final int hash;
+    if (RabbitMQSinkConnectorConfig.Sharding.KEY == sharding && null != key) {
+      hash = key instanceof byte[] ? Arrays.hashCode((byte[]) key) : key.hashCode();
+    } else {
+      hash = topicPartition.hashCode();
+    }
+    return Math.floorMod(hash, channels);
+  }
+
+  @Override
+  public void put(Collection<SinkRecord> records) {
+    for (SinkRecord record : records) {
+      final byte[] body = body(record);
+      final TopicPartition topicPartition = new TopicPartition(record.topic(), record.kafkaPartition());
+      final Publisher publisher = this.publishers.get(
+          shard(this.config.publisherSharding, record, topicPartition, this.publishers.size())
+      );
+      try {
+        publisher.publish(topicPartition, record.kafkaOffset(), body);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ConnectException("Interrupted while waiting for publisher confirms.", e);
+      }
+    }
+  }
+
+  @Override
+  public Map<TopicPartition, OffsetAndMetadata> preCommit(Map<TopicPartition, OffsetAndMetadata> currentOffsets) {
+    final Map<TopicPartition, OffsetAndMetadata> offsets = PublisherConfirms.committable(this.confirms, currentOffsets);
+    log.trace("preCommit() - committing {}", offsets);
+    return offsets;
+  }
+
+  @Override
+  public void close(Collection<TopicPartition> partitions) {
+    for (PublisherConfirms confirms : this.confirms) {
+      confirms.close(partitions);
+    }
+  }
+
+  @Override
+  public void stop() {
+    if (null == this.connections) {
+      return;
+    }
+    for (Connection connection : this.connections) {
+      try {
+        connection.close();
+      } catch (IOException e) {
+        log.error("Exception thrown while closing connection.", e);
+      }
+    }
+  }
+}
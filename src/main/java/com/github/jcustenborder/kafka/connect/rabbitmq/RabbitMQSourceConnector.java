@@ -20,13 +20,18 @@ import com.github.jcustenborder.kafka.connect.utils.config.Description;
 import org.apache.kafka.common.config.ConfigDef;
 import org.apache.kafka.connect.connector.Task;
 import org.apache.kafka.connect.source.SourceConnector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 @Description("Connector is used to read from a RabbitMQ Queue or Topic.")
 public class RabbitMQSourceConnector extends SourceConnector {
+  private static final Logger log = LoggerFactory.getLogger(RabbitMQSourceConnector.class);
   Map<String, String> settings;
   RabbitMQSourceConnectorConfig config;
 
@@ -48,9 +53,30 @@ public class RabbitMQSourceConnector extends SourceConnector {
 
   @Override
   public List<Map<String, String>> taskConfigs(int maxTasks) {
-    List<Map<String, String>> taskConfigs = new ArrayList<>();
-    for (int i = 0; i < maxTasks; i++) {
-      taskConfigs.add(this.settings);
+    QueueAssignor.Strategy strategy = this.config.queueAssignment;
+    Map<String, Integer> replicas = this.config.queueReplicas;
+    if (RabbitMQSourceConnectorConfig.SourceMode.STREAM == this.config.sourceMode) {
+      // Every consumer of a stream receives all of its messages, so a stream can only be assigned to one task.
+      if (QueueAssignor.Strategy.ALL == strategy) {
+        strategy = QueueAssignor.Strategy.ROUND_ROBIN;
+      }
+      replicas = Collections.emptyMap();
+    }
+    final List<List<String>> assignments = QueueAssignor.assign(
+        strategy,
+        this.config.queues,
+        this.config.queueWeights,
+        replicas,
+        maxTasks
+    );
+    List<Map<String, String>> taskConfigs = new ArrayList<>(assignments.size());
+    for (int i = 0; i < assignments.size(); i++) {
+      final List<String> queues = assignments.get(i);
+      log.info("taskConfigs() - Assigning task {} queues {}", i, queues);
+      Map<String, String> taskSettings = new LinkedHashMap<>(this.settings);
+      taskSettings.put(RabbitMQSourceConnectorConfig.QUEUE_CONF, String.join(",", queues));
+      taskSettings.put(RabbitMQSourceConnectorConfig.TASK_ID_CONF, Integer.toString(i));
+      taskConfigs.add(taskSettings);
     }
     return taskConfigs;
   }
@@ -17,7 +17,10 @@ package com.github.jcustenborder.kafka.connect.rabbitmq;
 
 import com.github.jcustenborder.kafka.connect.utils.template.StructTemplate;
 import org.apache.kafka.common.config.ConfigDef;
+import org.apache.kafka.common.config.ConfigException;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -25,13 +28,49 @@ class RabbitMQSourceConnectorConfig extends RabbitMQConnectorConfig {
 
   static final String KAFKA_TOPIC_TEMPLATE = "kafkaTopicTemplate";
   public static final String TOPIC_CONF = "kafka.topic";
-  static final String TOPIC_DOC = "Kafka topic to write the messages to.";
+  static final String TOPIC_DOC = "Kafka topic to write the messages to. The topic can be built from the delivery " +
+      "with the placeholders ${routingKey}, ${exchange}, ${queue}, ${messageId} and ${headers.name}, for example " +
+      "`rabbitmq.${routingKey}`. These are resolved without the template engine. Any other expression is evaluated " +
+      "by the template engine for every message.";
+
+  public static final String TOPIC_CACHE_SIZE_CONF = "kafka.topic.cache.size";
+  static final String TOPIC_CACHE_SIZE_DOC = "The number of resolved topic names each consumer caches when `" +
+      TOPIC_CONF + "` depends on a single placeholder. 0 disables the cache.";
+
+  public static final String PAYLOAD_FORMAT_CONF = "rabbitmq.payload.format";
+  static final String PAYLOAD_FORMAT_DOC = "How the message body is written to Kafka. `STRING` decodes the body to a " +
+      "string. `BYTES` passes the body through untouched as bytes, for use with the ByteArrayConverter. In `BYTES` " +
+      "mode a `" + TOPIC_CONF + "` that requires the template engine is evaluated against the message key instead of " +
+      "the decoded body.";
+
+  public static final String CONTENT_ENCODING_CONF = "rabbitmq.content.encoding";
+  static final String CONTENT_ENCODING_DOC = "What to do with bodies whose contentEncoding is `gzip`, `deflate` or " +
+      "`lz4` (frame format). `NONE` treats them like any other body. `DECOMPRESS` decompresses them before they are " +
+      "converted. `PASSTHROUGH` writes them to Kafka compressed as bytes, even when `" + PAYLOAD_FORMAT_CONF + "` " +
+      "is `STRING`, so they are neither mis-decoded to a string nor compressed a second time by the producer. Other " +
+      "content encodings are left as they are.";
+
+  public static final String CONTENT_ENCODING_MAX_BYTES_CONF = "rabbitmq.content.encoding.max.bytes";
+  static final String CONTENT_ENCODING_MAX_BYTES_DOC = "The largest size a body may decompress to when `" +
+      CONTENT_ENCODING_CONF + "` is `DECOMPRESS`. Larger bodies are rejected instead of exhausting the heap. The " +
+      "buffer and batch bounds count the decompressed size.";
+
+  public static final String RECORD_HEADERS_ENABLED_CONF = "rabbitmq.record.headers.enabled";
+  static final String RECORD_HEADERS_ENABLED_DOC = "Copy the AMQP headers of each message to the headers of the Kafka " +
+      "record. Values keep their primitive type, LongString values are passed through as bytes.";
+
+  public static final String RECORD_HEADERS_PROPERTIES_CONF = "rabbitmq.record.headers.properties";
+  static final String RECORD_HEADERS_PROPERTIES_DOC = "BasicProperties fields to add to the headers of the Kafka record " +
+      "as `" + MessageConverter.RECORD_HEADER_PROPERTY_PREFIX + "<field>` when `" + RECORD_HEADERS_ENABLED_CONF +
+      "` is true. Supported fields are " + MessageConverter.RECORD_HEADER_PROPERTIES + ".";
 
   public static final String QUEUE_CONF = "rabbitmq.queue";
   static final String QUEUE_DOC = "rabbitmq.queue";
 
   public static final String PREFETCH_COUNT_CONF = "rabbitmq.prefetch.count";
   static final String PREFETCH_COUNT_DOC = "Maximum number of messages that the server will deliver, 0 if unlimited. " +
+      "The prefetch count applies to each consumer. When 0 the prefetch of each consumer is bounded by " +
+      "`buffer.max.records` so the broker cannot deliver more messages than the task can buffer. " +
       "See `Channel.basicQos(int, boolean) <https://www.rabbitmq.com/releases/rabbitmq-java-client/current-javadoc/com/rabbitmq/client/Channel.html#basicQos-int-boolean->`_";
 
   public static final String PREFETCH_GLOBAL_CONF = "rabbitmq.prefetch.global";
@@ -39,10 +78,180 @@ class RabbitMQSourceConnectorConfig extends RabbitMQConnectorConfig {
       "than each consumer. " +
       "See `Channel.basicQos(int, boolean) <https://www.rabbitmq.com/releases/rabbitmq-java-client/current-javadoc/com/rabbitmq/client/Channel.html#basicQos-int-boolean->`_";
 
+  public static final String QUEUE_ASSIGNMENT_CONF = "rabbitmq.queue.assignment";
+  static final String QUEUE_ASSIGNMENT_DOC = "How the queues are distributed across tasks. `ALL` subscribes every task " +
+      "to every queue. `ROUND_ROBIN` deals the queues out to the tasks in the order they are configured. `WEIGHTED` " +
+      "assigns the heaviest queues first, each to the task with the lowest total weight.";
+
+  public static final String QUEUE_WEIGHTS_CONF = "rabbitmq.queue.weights";
+  static final String QUEUE_WEIGHTS_DOC = "Relative weight of the queues for the `WEIGHTED` assignment, as a list of " +
+      "`queue:weight` entries. Queues that are not listed have a weight of 1.";
+
+  public static final String QUEUE_REPLICAS_CONF = "rabbitmq.queue.replicas";
+  static final String QUEUE_REPLICAS_DOC = "Number of tasks that consume from a queue, as a list of `queue:count` " +
+      "entries. Spreads a busy queue over several tasks as competing consumers when `" + QUEUE_ASSIGNMENT_CONF +
+      "` is `ROUND_ROBIN` or `WEIGHTED`. Queues that are not listed are consumed by one task.";
+
+  public static final String CONSUMERS_PER_QUEUE_CONF = "rabbitmq.consumers.per.queue";
+  static final String CONSUMERS_PER_QUEUE_DOC = "The number of consumers to start for each queue. Every consumer is " +
+      "started on its own channel with its own prefetch window.";
+
+  public static final String FILTER_BODY_CONTAINS_CONF = "rabbitmq.filter.body.contains";
+  static final String FILTER_BODY_CONTAINS_DOC = "Messages whose body contains any of these strings, encoded as UTF-8, " +
+      "are dropped. The body is searched as bytes without decoding it to a string. When `" + CONTENT_ENCODING_CONF + "` " +
+      "is `DECOMPRESS` compressed bodies are searched after they were decompressed.";
+
+  public static final String FILTER_ROUTING_KEYS_CONF = "rabbitmq.filter.routing.keys";
+  static final String FILTER_ROUTING_KEYS_DOC = "Messages published with any of these routing keys are dropped.";
+
+  public static final String FILTER_EXCHANGES_CONF = "rabbitmq.filter.exchanges";
+  static final String FILTER_EXCHANGES_DOC = "Messages published to any of these exchanges are dropped.";
+
+  public static final String FILTER_HEADERS_CONF = "rabbitmq.filter.headers";
+  static final String FILTER_HEADERS_DOC = "Messages with any of these headers are dropped. Entries are either `name`, " +
+      "to match on the presence of the header, or `name=value` to match on its value. A header can be listed " +
+      "several times to match any of its values.";
+
+  public static final String BATCH_MAX_RECORDS_CONF = "batch.max.records";
+  static final String BATCH_MAX_RECORDS_DOC = "Maximum number of records returned by a single call to poll().";
+
+  public static final String BATCH_MAX_BYTES_CONF = "batch.max.bytes";
+  static final String BATCH_MAX_BYTES_DOC = "Maximum number of message body bytes returned by a single call to poll(). " +
+      "A message larger than this is returned in a batch of its own. 0 for unlimited.";
+
+  public static final String BATCH_LINGER_MS_CONF = "batch.linger.ms";
+  static final String BATCH_LINGER_MS_DOC = "Once a record is available, the amount of time in milliseconds poll() will " +
+      "wait for more records to arrive before returning a batch smaller than `" + BATCH_MAX_RECORDS_CONF + "`. " +
+      "0 returns as soon as a record is available.";
+
+  public static final String POLL_TIMEOUT_MS_CONF = "poll.timeout.ms";
+  static final String POLL_TIMEOUT_MS_DOC = "The maximum amount of time in milliseconds poll() will block waiting for " +
+      "the first record before returning control to the Kafka Connect framework.";
+
+  public static final String BUFFER_MAX_RECORDS_CONF = "buffer.max.records";
+  static final int BUFFER_MAX_RECORDS_DEFAULT = 10000;
+  static final String BUFFER_MAX_RECORDS_DOC = "Maximum number of records buffered between the RabbitMQ consumer and poll(). " +
+      "When the buffer is full delivery is blocked until poll() catches up. 0 sizes the buffer from `" +
+      PREFETCH_COUNT_CONF + "`, falling back to " + BUFFER_MAX_RECORDS_DEFAULT + " when the prefetch count is unlimited.";
+
+  public static final String BUFFER_MAX_BYTES_CONF = "buffer.max.bytes";
+  static final String BUFFER_MAX_BYTES_DOC = "Maximum number of message body bytes buffered between the RabbitMQ consumer " +
+      "and poll(). 0 for unlimited.";
+
+  public static final String INFLIGHT_MAX_BYTES_CONF = "inflight.max.bytes";
+  static final String INFLIGHT_MAX_BYTES_DOC = "Maximum number of message body bytes the task holds from delivery until " +
+      "Connect commits the record, including records already handed to the Kafka producer. Once reached every " +
+      "consumer is cancelled, and they are started again when the bytes drop to half of it. Unlike the prefetch " +
+      "count this bounds memory for queues with occasional large messages. 0 for unlimited.";
+
+  public static final String ACK_MAX_PENDING_CONF = "rabbitmq.ack.max.pending";
+  static final String ACK_MAX_PENDING_DOC = "Maximum number of committed records to hold before acknowledging them to " +
+      "RabbitMQ with a single cumulative basicAck. Capped at half of the prefetch count so that a full prefetch window " +
+      "is always acknowledged. 1 acknowledges each record as soon as it, and every record delivered before it, " +
+      "is committed.";
+
+  public static final String ACK_FLUSH_INTERVAL_MS_CONF = "rabbitmq.ack.flush.interval.ms";
+  static final String ACK_FLUSH_INTERVAL_MS_DOC = "The maximum amount of time in milliseconds committed records are " +
+      "held before they are acknowledged to RabbitMQ.";
+
+  public static final String SOURCE_MODE_CONF = "rabbitmq.source.mode";
+  static final String SOURCE_MODE_DOC = "`QUEUE` consumes classic or quorum queues, messages are acknowledged once " +
+      "Kafka has written them. `STREAM` consumes stream queues from the position stored in the Connect offsets. " +
+      "Messages are acknowledged as soon as they are received, which only replenishes the consumer's credit, and " +
+      "the stream offset of each message is stored as its source offset. In `STREAM` mode each stream is consumed " +
+      "by a single consumer: `" + CONSUMERS_PER_QUEUE_CONF + "` must be 1, and queues are assigned round robin " +
+      "unless `" + QUEUE_ASSIGNMENT_CONF + "` is `WEIGHTED`. Requires RabbitMQ 3.9 or later.";
+
+  public static final String STREAM_OFFSET_START_CONF = "rabbitmq.stream.offset.start";
+  static final String STREAM_OFFSET_START_DOC = "Where to start consuming a stream that has no stored offset. `first` " +
+      "starts at the beginning of the stream, `last` at the last chunk and `next` only consumes new messages.";
+
+  public static final String PREFETCH_ADAPTIVE_ENABLED_CONF = "rabbitmq.prefetch.adaptive.enabled";
+  static final String PREFETCH_ADAPTIVE_ENABLED_DOC = "Adjust the prefetch count of each consumer while it runs. The " +
+      "prefetch grows by a fixed step while the consumer has used up its prefetch and the buffer is nearly empty, " +
+      "and is halved while the buffer is nearly full. Starts at `" + PREFETCH_COUNT_CONF + "`, or the derived " +
+      "prefetch when that is 0, and stays within `rabbitmq.prefetch.min` and `rabbitmq.prefetch.max`. RabbitMQ " +
+      "only applies a per consumer prefetch to new consumers, so each change cancels the consumer and starts it " +
+      "again. With `" + PREFETCH_GLOBAL_CONF + "` the change applies to the running consumer, but quorum queues and " +
+      "streams reject consumers on a channel with a global prefetch.";
+
+  public static final String PREFETCH_MIN_CONF = "rabbitmq.prefetch.min";
+  static final String PREFETCH_MIN_DOC = "The lowest prefetch count the adaptive prefetch goes down to.";
+
+  public static final String PREFETCH_MAX_CONF = "rabbitmq.prefetch.max";
+  static final String PREFETCH_MAX_DOC = "The highest prefetch count the adaptive prefetch goes up to. 0 uses " +
+      "`buffer.max.records` divided by the number of consumers.";
+
+  public static final String PREFETCH_ADAPTIVE_INTERVAL_MS_CONF = "rabbitmq.prefetch.adaptive.interval.ms";
+  static final String PREFETCH_ADAPTIVE_INTERVAL_MS_DOC = "How often the adaptive prefetch of each consumer is " +
+      "re-evaluated.";
+
+  public static final String STOP_COMMIT_TIMEOUT_MS_CONF = "rabbitmq.stop.commit.timeout.ms";
+  static final String STOP_COMMIT_TIMEOUT_MS_DOC = "How long the task waits after it was stopped for the records that " +
+      "were already returned by poll() to be committed. The wait happens in the background, stop() does not block " +
+      "on it. Committed records are acknowledged, every other delivery is requeued to RabbitMQ.";
+
+  public static final String CONVERSION_THREADS_CONF = "rabbitmq.conversion.threads";
+  static final String CONVERSION_THREADS_DOC = "The number of threads that convert deliveries to records. 0 converts " +
+      "on the thread that dispatches the delivery. Deliveries of the same queue are converted in parallel and buffered " +
+      "in the order they were delivered. Bodies waiting to be converted count against the buffer and in-flight bytes.";
+
+  static final String TASK_ID_CONF = "task.id";
+
+  enum PayloadFormat {
+    STRING,
+    BYTES
+  }
+
+  enum ContentEncoding {
+    NONE,
+    DECOMPRESS,
+    PASSTHROUGH
+  }
+
+  enum SourceMode {
+    QUEUE,
+    STREAM
+  }
+
   public final StructTemplate kafkaTopic;
+  /**
+   * Compiled kafka.topic, null if the template has to be evaluated by {@link #kafkaTopic}.
+   */
+  public final TopicRouter topicRouter;
+  public final PayloadFormat payloadFormat;
+  public final ContentEncoding contentEncoding;
+  public final int contentEncodingMaxBytes;
+  public final SourceMode sourceMode;
+  public final String streamOffsetStart;
+  public final boolean recordHeadersEnabled;
+  public final List<String> recordHeadersProperties;
   public final List<String> queues;
   public final int prefetchCount;
   public final boolean prefetchGlobal;
+  public final int consumersPerQueue;
+  public final QueueAssignor.Strategy queueAssignment;
+  public final Map<String, Integer> queueWeights;
+  public final Map<String, Integer> queueReplicas;
+  public final List<String> filterBodyContains;
+  public final List<String> filterRoutingKeys;
+  public final List<String> filterExchanges;
+  public final List<String> filterHeaders;
+  public final int batchMaxRecords;
+  public final long batchMaxBytes;
+  public final long batchLingerMs;
+  public final long pollTimeoutMs;
+  public final int bufferMaxRecords;
+  public final long bufferMaxBytes;
+  public final long inFlightMaxBytes;
+  public final int ackMaxPending;
+  public final long ackFlushIntervalMs;
+  public final long stopCommitTimeoutMs;
+  public final boolean prefetchAdaptiveEnabled;
+  public final int prefetchMin;
+  public final int prefetchMax;
+  public final long prefetchAdaptiveIntervalMs;
+  public final int conversionThreads;
 
   public RabbitMQSourceConnectorConfig(Map<String, String> settings) {
     super(config(), settings);
@@ -50,16 +259,185 @@ class RabbitMQSourceConnectorConfig extends RabbitMQConnectorConfig {
     final String kafkaTopicFormat = this.getString(TOPIC_CONF);
     this.kafkaTopic = new StructTemplate();
     this.kafkaTopic.addTemplate(KAFKA_TOPIC_TEMPLATE, kafkaTopicFormat);
+    this.topicRouter = TopicRouter.compile(kafkaTopicFormat, this.getInt(TOPIC_CACHE_SIZE_CONF));
+    this.payloadFormat = PayloadFormat.valueOf(this.getString(PAYLOAD_FORMAT_CONF));
+    this.contentEncoding = ContentEncoding.valueOf(this.getString(CONTENT_ENCODING_CONF));
+    this.contentEncodingMaxBytes = this.getInt(CONTENT_ENCODING_MAX_BYTES_CONF);
+    this.sourceMode = SourceMode.valueOf(this.getString(SOURCE_MODE_CONF));
+    this.streamOffsetStart = this.getString(STREAM_OFFSET_START_CONF);
+    this.recordHeadersEnabled = this.getBoolean(RECORD_HEADERS_ENABLED_CONF);
+    this.recordHeadersProperties = this.getList(RECORD_HEADERS_PROPERTIES_CONF);
     this.queues = this.getList(QUEUE_CONF);
     this.prefetchCount = this.getInt(PREFETCH_COUNT_CONF);
     this.prefetchGlobal = this.getBoolean(PREFETCH_GLOBAL_CONF);
+    this.consumersPerQueue = this.getInt(CONSUMERS_PER_QUEUE_CONF);
+    if (SourceMode.STREAM == this.sourceMode && this.consumersPerQueue > 1) {
+      throw new ConfigException(CONSUMERS_PER_QUEUE_CONF, this.consumersPerQueue, "Must be 1 when " + SOURCE_MODE_CONF + " is STREAM.");
+    }
+    this.queueAssignment = QueueAssignor.Strategy.valueOf(this.getString(QUEUE_ASSIGNMENT_CONF));
+    this.queueWeights = queueCounts(QUEUE_WEIGHTS_CONF, this.getList(QUEUE_WEIGHTS_CONF));
+    this.queueReplicas = queueCounts(QUEUE_REPLICAS_CONF, this.getList(QUEUE_REPLICAS_CONF));
+    this.filterBodyContains = nonEmpty(this.getList(FILTER_BODY_CONTAINS_CONF));
+    this.filterRoutingKeys = this.getList(FILTER_ROUTING_KEYS_CONF);
+    this.filterExchanges = this.getList(FILTER_EXCHANGES_CONF);
+    this.filterHeaders = nonEmpty(this.getList(FILTER_HEADERS_CONF));
+    this.batchMaxRecords = this.getInt(BATCH_MAX_RECORDS_CONF);
+    this.batchMaxBytes = this.getLong(BATCH_MAX_BYTES_CONF);
+    this.batchLingerMs = this.getLong(BATCH_LINGER_MS_CONF);
+    this.pollTimeoutMs = this.getLong(POLL_TIMEOUT_MS_CONF);
+    this.bufferMaxRecords = bufferMaxRecords(this.getInt(BUFFER_MAX_RECORDS_CONF));
+    this.bufferMaxBytes = this.getLong(BUFFER_MAX_BYTES_CONF);
+    this.inFlightMaxBytes = this.getLong(INFLIGHT_MAX_BYTES_CONF);
+    this.prefetchAdaptiveEnabled = this.getBoolean(PREFETCH_ADAPTIVE_ENABLED_CONF);
+    this.prefetchMax = this.getInt(PREFETCH_MAX_CONF) > 0 ?
+        this.getInt(PREFETCH_MAX_CONF) : Math.max(1, this.bufferMaxRecords / Math.max(1, consumerCount()));
+    this.prefetchMin = this.getInt(PREFETCH_MIN_CONF);
+    if (this.prefetchAdaptiveEnabled && this.prefetchMin > this.prefetchMax) {
+      throw new ConfigException(PREFETCH_MIN_CONF, this.prefetchMin, "Must not be greater than " + PREFETCH_MAX_CONF + " (" + this.prefetchMax + ").");
+    }
+    this.prefetchAdaptiveIntervalMs = this.getLong(PREFETCH_ADAPTIVE_INTERVAL_MS_CONF);
+    this.ackMaxPending = ackMaxPending(effectivePrefetchCount());
+    this.ackFlushIntervalMs = this.getLong(ACK_FLUSH_INTERVAL_MS_CONF);
+    this.stopCommitTimeoutMs = this.getLong(STOP_COMMIT_TIMEOUT_MS_CONF);
+    this.conversionThreads = this.getInt(CONVERSION_THREADS_CONF);
   }
 
   public static ConfigDef config() {
     return RabbitMQConnectorConfig.config()
         .define(TOPIC_CONF, ConfigDef.Type.STRING, ConfigDef.Importance.HIGH, TOPIC_DOC)
+        .define(TOPIC_CACHE_SIZE_CONF, ConfigDef.Type.INT, 1000, ConfigDef.Range.atLeast(0), ConfigDef.Importance.LOW, TOPIC_CACHE_SIZE_DOC)
+        .define(PAYLOAD_FORMAT_CONF, ConfigDef.Type.STRING, PayloadFormat.STRING.name(),
+            ConfigDef.ValidString.in(PayloadFormat.STRING.name(), PayloadFormat.BYTES.name()),
+            ConfigDef.Importance.MEDIUM, PAYLOAD_FORMAT_DOC)
+        .define(CONTENT_ENCODING_CONF, ConfigDef.Type.STRING, ContentEncoding.NONE.name(),
+            ConfigDef.ValidString.in(ContentEncoding.NONE.name(), ContentEncoding.DECOMPRESS.name(), ContentEncoding.PASSTHROUGH.name()),
+            ConfigDef.Importance.LOW, CONTENT_ENCODING_DOC)
+        .define(CONTENT_ENCODING_MAX_BYTES_CONF, ConfigDef.Type.INT, 64 * 1024 * 1024,
+            ConfigDef.Range.between(1, ContentDecoder.MAX_BUFFER_SIZE), ConfigDef.Importance.LOW, CONTENT_ENCODING_MAX_BYTES_DOC)
+        .define(SOURCE_MODE_CONF, ConfigDef.Type.STRING, SourceMode.QUEUE.name(),
+            ConfigDef.ValidString.in(SourceMode.QUEUE.name(), SourceMode.STREAM.name()),
+            ConfigDef.Importance.MEDIUM, SOURCE_MODE_DOC)
+        .define(STREAM_OFFSET_START_CONF, ConfigDef.Type.STRING, "next", ConfigDef.ValidString.in("first", "last", "next"),
+            ConfigDef.Importance.LOW, STREAM_OFFSET_START_DOC)
         .define(PREFETCH_COUNT_CONF, ConfigDef.Type.INT, 0, ConfigDef.Importance.MEDIUM, PREFETCH_COUNT_DOC)
         .define(PREFETCH_GLOBAL_CONF, ConfigDef.Type.BOOLEAN, false, ConfigDef.Importance.MEDIUM, PREFETCH_GLOBAL_DOC)
-        .define(QUEUE_CONF, ConfigDef.Type.LIST, ConfigDef.Importance.HIGH, QUEUE_DOC);
+        .define(RECORD_HEADERS_ENABLED_CONF, ConfigDef.Type.BOOLEAN, false, ConfigDef.Importance.MEDIUM, RECORD_HEADERS_ENABLED_DOC)
+        .define(RECORD_HEADERS_PROPERTIES_CONF, ConfigDef.Type.LIST, "", (name, value) -> {
+          for (Object property : (List<?>) value) {
+            if (!MessageConverter.RECORD_HEADER_PROPERTIES.contains(property)) {
+              throw new ConfigException(name, property, "Must be one of " + MessageConverter.RECORD_HEADER_PROPERTIES);
+            }
+          }
+        }, ConfigDef.Importance.LOW, RECORD_HEADERS_PROPERTIES_DOC)
+        .define(QUEUE_CONF, ConfigDef.Type.LIST, ConfigDef.Importance.HIGH, QUEUE_DOC)
+        .define(QUEUE_ASSIGNMENT_CONF, ConfigDef.Type.STRING, QueueAssignor.Strategy.ALL.name(),
+            ConfigDef.ValidString.in(
+                QueueAssignor.Strategy.ALL.name(),
+                QueueAssignor.Strategy.ROUND_ROBIN.name(),
+                QueueAssignor.Strategy.WEIGHTED.name()
+            ),
+            ConfigDef.Importance.MEDIUM, QUEUE_ASSIGNMENT_DOC)
+        .define(QUEUE_WEIGHTS_CONF, ConfigDef.Type.LIST, "", ConfigDef.Importance.LOW, QUEUE_WEIGHTS_DOC)
+        .define(QUEUE_REPLICAS_CONF, ConfigDef.Type.LIST, "", ConfigDef.Importance.LOW, QUEUE_REPLICAS_DOC)
+        .define(CONSUMERS_PER_QUEUE_CONF, ConfigDef.Type.INT, 1, ConfigDef.Range.atLeast(1), ConfigDef.Importance.MEDIUM, CONSUMERS_PER_QUEUE_DOC)
+        .define(FILTER_BODY_CONTAINS_CONF, ConfigDef.Type.LIST, "/ping/ping", ConfigDef.Importance.LOW, FILTER_BODY_CONTAINS_DOC)
+        .define(FILTER_ROUTING_KEYS_CONF, ConfigDef.Type.LIST, "", ConfigDef.Importance.LOW, FILTER_ROUTING_KEYS_DOC)
+        .define(FILTER_EXCHANGES_CONF, ConfigDef.Type.LIST, "", ConfigDef.Importance.LOW, FILTER_EXCHANGES_DOC)
+        .define(FILTER_HEADERS_CONF, ConfigDef.Type.LIST, "", ConfigDef.Importance.LOW, FILTER_HEADERS_DOC)
+        .define(BATCH_MAX_RECORDS_CONF, ConfigDef.Type.INT, 4096, ConfigDef.Range.atLeast(1), ConfigDef.Importance.LOW, BATCH_MAX_RECORDS_DOC)
+        .define(BATCH_MAX_BYTES_CONF, ConfigDef.Type.LONG, 0L, ConfigDef.Range.atLeast(0L), ConfigDef.Importance.LOW, BATCH_MAX_BYTES_DOC)
+        .define(BATCH_LINGER_MS_CONF, ConfigDef.Type.LONG, 0L, ConfigDef.Range.atLeast(0L), ConfigDef.Importance.LOW, BATCH_LINGER_MS_DOC)
+        .define(POLL_TIMEOUT_MS_CONF, ConfigDef.Type.LONG, 1000L, ConfigDef.Range.atLeast(0L), ConfigDef.Importance.LOW, POLL_TIMEOUT_MS_DOC)
+        .define(BUFFER_MAX_RECORDS_CONF, ConfigDef.Type.INT, 0, ConfigDef.Range.atLeast(0), ConfigDef.Importance.MEDIUM, BUFFER_MAX_RECORDS_DOC)
+        .define(BUFFER_MAX_BYTES_CONF, ConfigDef.Type.LONG, 0L, ConfigDef.Range.atLeast(0L), ConfigDef.Importance.MEDIUM, BUFFER_MAX_BYTES_DOC)
+        .define(INFLIGHT_MAX_BYTES_CONF, ConfigDef.Type.LONG, 0L, ConfigDef.Range.atLeast(0L), ConfigDef.Importance.MEDIUM, INFLIGHT_MAX_BYTES_DOC)
+        .define(ACK_MAX_PENDING_CONF, ConfigDef.Type.INT, 1000, ConfigDef.Range.atLeast(1), ConfigDef.Importance.LOW, ACK_MAX_PENDING_DOC)
+        .define(ACK_FLUSH_INTERVAL_MS_CONF, ConfigDef.Type.LONG, 100L, ConfigDef.Range.atLeast(0L), ConfigDef.Importance.LOW, ACK_FLUSH_INTERVAL_MS_DOC)
+        .define(PREFETCH_ADAPTIVE_ENABLED_CONF, ConfigDef.Type.BOOLEAN, false, ConfigDef.Importance.LOW, PREFETCH_ADAPTIVE_ENABLED_DOC)
+        .define(PREFETCH_MIN_CONF, ConfigDef.Type.INT, 10, ConfigDef.Range.atLeast(1), ConfigDef.Importance.LOW, PREFETCH_MIN_DOC)
+        .define(PREFETCH_MAX_CONF, ConfigDef.Type.INT, 0, ConfigDef.Range.atLeast(0), ConfigDef.Importance.LOW, PREFETCH_MAX_DOC)
+        .define(PREFETCH_ADAPTIVE_INTERVAL_MS_CONF, ConfigDef.Type.LONG, 1000L, ConfigDef.Range.atLeast(1L), ConfigDef.Importance.LOW, PREFETCH_ADAPTIVE_INTERVAL_MS_DOC)
+        .define(STOP_COMMIT_TIMEOUT_MS_CONF, ConfigDef.Type.LONG, 5000L, ConfigDef.Range.atLeast(0L), ConfigDef.Importance.LOW, STOP_COMMIT_TIMEOUT_MS_DOC)
+        .define(CONVERSION_THREADS_CONF, ConfigDef.Type.INT, 0, ConfigDef.Range.atLeast(0), ConfigDef.Importance.LOW, CONVERSION_THREADS_DOC);
+  }
+
+  static List<String> nonEmpty(List<String> entries) {
+    List<String> result = new ArrayList<>(entries.size());
+    for (String entry : entries) {
+      if (!entry.isEmpty()) {
+        result.add(entry);
+      }
+    }
+    return result;
+  }
+
+  static Map<String, Integer> queueCounts(String key, List<String> entries) {
+    Map<String, Integer> result = new LinkedHashMap<>();
+    for (String entry : entries) {
+      final int index = entry.lastIndexOf(':');
+      if (index <= 0) {
+        throw new ConfigException(key, entry, "Entries must be in the form of queue:count");
+      }
+      final int count;
+      try {
+        count = Integer.parseInt(entry.substring(index + 1).trim());
+      } catch (NumberFormatException e) {
+        throw new ConfigException(key, entry, "Entries must be in the form of queue:count");
+      }
+      if (count < 1) {
+        throw new ConfigException(key, entry, "Count must be at least 1");
+      }
+      result.put(entry.substring(0, index).trim(), count);
+    }
+    return result;
+  }
+
+  /**
+   * @return the number of consumers, and therefore channels, the task starts.
+   */
+  int consumerCount() {
+    return this.queues.size() * this.consumersPerQueue;
+  }
+
+  int bufferMaxRecords(int configured) {
+    if (configured > 0) {
+      return configured;
+    }
+    if (this.prefetchCount > 0) {
+      // The broker will never have more than the prefetch count unacknowledged, so the buffer cannot overflow.
+      return this.prefetchCount * Math.max(1, consumerCount());
+    }
+    return BUFFER_MAX_RECORDS_DEFAULT;
+  }
+
+  /**
+   * @return the prefetch count to pass to basicQos. An unlimited prefetch is bounded by the buffer size so
+   * that a full buffer applies backpressure to the broker instead of queueing deliveries inside the client.
+   */
+  int effectivePrefetchCount() {
+    final int prefetchCount = this.prefetchCount > 0 ?
+        this.prefetchCount : Math.max(1, this.bufferMaxRecords / Math.max(1, consumerCount()));
+    if (this.prefetchAdaptiveEnabled) {
+      return Math.max(this.prefetchMin, Math.min(this.prefetchMax, prefetchCount));
+    }
+    return prefetchCount;
+  }
+
+  /**
+   * @return the highest prefetch count a consumer can have.
+   */
+  int maxPrefetchCount() {
+    return this.prefetchAdaptiveEnabled ? this.prefetchMax : effectivePrefetchCount();
+  }
+
+  /**
+   * Acknowledgements have to be sent before the consumer runs out of prefetch, otherwise the broker stops
+   * delivering until the next timed flush.
+   *
+   * @param prefetchCount prefetch count of the consumer.
+   * @return the maximum number of pending acknowledgements for the prefetch count.
+   */
+  int ackMaxPending(int prefetchCount) {
+    return Math.min(this.getInt(ACK_MAX_PENDING_CONF), Math.max(1, prefetchCount / 2));
   }
 }
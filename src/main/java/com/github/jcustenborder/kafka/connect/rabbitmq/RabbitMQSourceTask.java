@@ -16,10 +16,13 @@
 package com.github.jcustenborder.kafka.connect.rabbitmq;
 
 import com.github.jcustenborder.kafka.connect.utils.VersionUtil;
-import com.github.jcustenborder.kafka.connect.utils.data.SourceRecordConcurrentLinkedDeque;
+import com.google.common.collect.ImmutableMap;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.ShutdownSignalException;
+import org.apache.kafka.common.utils.Time;
 import org.apache.kafka.connect.errors.ConnectException;
 import org.apache.kafka.connect.errors.RetriableException;
 import org.apache.kafka.connect.source.SourceRecord;
@@ -29,63 +32,226 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class RabbitMQSourceTask extends SourceTask {
   private static final Logger log = LoggerFactory.getLogger(RabbitMQSourceTask.class);
   RabbitMQSourceConnectorConfig config;
-  SourceRecordConcurrentLinkedDeque records;
-  ConnectConsumer consumer;
+  RecordBuffer records;
+  /**
+   * Consumers keyed by channel number, used to route acknowledgements back to the channel a record was delivered on.
+   */
+  Map<Integer, ConnectConsumer> consumers;
+  SourceTaskMetrics metrics;
+  /**
+   * Returned by every poll(). Connect hands the list back to the task, by calling poll() again, only after every
+   * record in it was sent, so it is cleared and refilled instead of allocating a new one per poll.
+   */
+  ArrayList<SourceRecord> batch;
+  /**
+   * Records returned by poll() that have not been committed yet.
+   */
+  final AtomicLong uncommitted = new AtomicLong();
+  private final Object committed = new Object();
+  /**
+   * Set by stop(), poll() returns nothing once it is set.
+   */
+  volatile boolean stopping;
+  /**
+   * Settles acknowledgements and closes the connection after stop() returned.
+   */
+  Thread shutdown;
 
   @Override
   public String version() {
     return VersionUtil.version(this.getClass());
   }
 
-  Channel channel;
   Connection connection;
+  /**
+   * Executor the consumers are called on, null when the client's own pool is used.
+   */
+  ExecutorService dispatchExecutor;
+  /**
+   * Threads deliveries are converted on, null when they are converted on the dispatch threads.
+   */
+  ConversionPool conversion;
+  /**
+   * Payload bytes between delivery and commitRecord, bounded by inflight.max.bytes.
+   */
+  InFlightBytes inFlight;
 
   @Override
   public void start(Map<String, String> settings) {
     this.config = new RabbitMQSourceConnectorConfig(settings);
-    this.records = new SourceRecordConcurrentLinkedDeque();
-    this.consumer = new ConnectConsumer(this.records, this.config);
+    this.records = new RecordBuffer(this.config.bufferMaxRecords, this.config.bufferMaxBytes);
+    this.batch = new ArrayList<>(Math.min(this.config.batchMaxRecords, this.config.bufferMaxRecords));
+    this.metrics = new SourceTaskMetrics(
+        settings.getOrDefault("name", "rabbitmq"),
+        settings.getOrDefault(RabbitMQSourceConnectorConfig.TASK_ID_CONF, "0"),
+        this.config.batchMaxRecords
+    );
+    this.metrics.buffer(this.records);
+    this.inFlight = new InFlightBytes(this.config.inFlightMaxBytes);
+    this.metrics.inFlight(this.inFlight);
 
-    ConnectionFactory connectionFactory = this.config.connectionFactory();
     try {
       log.info("Opening connection to {}:{}/{}", this.config.host, this.config.port, this.config.virtualHost);
-      this.connection = connectionFactory.newConnection();
+      this.dispatchExecutor = this.config.consumerDispatchExecutor(this.config.consumerCount());
+      log.info("Dispatching deliveries with {}", this.config.consumerDispatch);
+      this.connection = newConnection();
     } catch (IOException | TimeoutException e) {
+      if (null != this.dispatchExecutor) {
+        this.dispatchExecutor.shutdown();
+      }
       throw new ConnectException(e);
     }
 
-    try {
-      log.info("Creating Channel");
-      this.channel = this.connection.createChannel();
-    } catch (IOException e) {
-      throw new ConnectException(e);
+    final int prefetchCount = this.config.effectivePrefetchCount();
+    if (this.config.conversionThreads > 0) {
+      log.info("Converting deliveries on {} threads", this.config.conversionThreads);
+      this.conversion = new ConversionPool(this.config.conversionThreads);
     }
-
+    Map<Integer, ConnectConsumer> consumers = new LinkedHashMap<>();
     for (String queue : this.config.queues) {
-      try {
-        log.info("Starting consumer");
-        this.channel.basicConsume(queue, this.consumer);
-        log.info("Setting channel.basicQos({}, {});", this.config.prefetchCount, this.config.prefetchGlobal);
-        this.channel.basicQos(this.config.prefetchCount, this.config.prefetchGlobal);
-      } catch (IOException ex) {
-        throw new ConnectException(ex);
+      for (int i = 0; i < this.config.consumersPerQueue; i++) {
+        try {
+          log.info("Creating channel for consumer {} of queue '{}'", i, queue);
+          Channel channel = this.connection.createChannel();
+          // basicQos only applies to consumers that are started after it has been set.
+          log.info("Setting channel.basicQos({}, {});", prefetchCount, this.config.prefetchGlobal);
+          channel.basicQos(prefetchCount, this.config.prefetchGlobal);
+          AckCoalescer acks = new AckCoalescer(channel, this.config.ackMaxPending(prefetchCount), this.config.ackFlushIntervalMs, Time.SYSTEM);
+          ConnectConsumer consumer = new ConnectConsumer(this.records, this.config, channel, queue, acks, this.metrics);
+          consumer.prefetchCount = prefetchCount;
+          consumer.inFlight = this.inFlight;
+          if (this.config.prefetchAdaptiveEnabled) {
+            consumer.prefetch = new PrefetchController(consumer, this.records, this.config, this::consume, Time.SYSTEM);
+          }
+          if (null != this.conversion) {
+            consumer.conversion = this.conversion.executor;
+          }
+          consumers.put(channel.getChannelNumber(), consumer);
+          if (channel instanceof Recoverable) {
+            ((Recoverable) channel).addRecoveryListener(consumer);
+          }
+          consume(consumer);
+        } catch (IOException ex) {
+          throw new ConnectException(ex);
+        }
+      }
+    }
+    this.consumers = consumers;
+    this.metrics.consumers(this.consumers.values());
+  }
+
+  /**
+   * Starts consuming the consumer's queue. A stream consumer that was paused resumes after the last record it
+   * buffered, the broker does not keep the position of a cancelled stream consumer.
+   *
+   * @param consumer consumer to start.
+   * @throws IOException thrown if the consumer could not be started.
+   */
+  void consume(ConnectConsumer consumer) throws IOException {
+    if (RabbitMQSourceConnectorConfig.SourceMode.STREAM == this.config.sourceMode) {
+      final long lastStreamOffset = consumer.lastStreamOffset;
+      final Object streamOffset = lastStreamOffset >= 0L ? lastStreamOffset + 1L : streamOffset(consumer.queue);
+      if (lastStreamOffset < 0L && streamOffset instanceof Long) {
+        // Resuming from the offset Connect stored, anything up to it is skipped like a redelivery.
+        consumer.lastStreamOffset = (Long) streamOffset - 1L;
+      }
+      log.info("Starting stream consumer at {}", streamOffset);
+      consumer.consumerTag = consumer.channel.basicConsume(
+          consumer.queue, false, "", false, false,
+          ImmutableMap.<String, Object>of(SourceRecordBuilder.STREAM_OFFSET_HEADER, streamOffset),
+          consumer
+      );
+    } else {
+      log.info("Starting consumer");
+      consumer.consumerTag = consumer.channel.basicConsume(consumer.queue, consumer);
+    }
+  }
+
+  /**
+   * Cancels every consumer once inflight.max.bytes is reached and starts them again once the bytes dropped to half
+   * of it. Cancelling stops the broker from delivering, unlike a lower prefetch it also holds back consumers whose
+   * unacknowledged deliveries are few but large.
+   *
+   * @throws IOException thrown if a consumer could not be cancelled or started.
+   */
+  void maybePause() throws IOException {
+    if (!this.inFlight.paused && this.inFlight.exhausted()) {
+      log.info("poll() - {} bytes in flight, pausing consumers.", this.inFlight.bytes());
+      this.inFlight.paused = true;
+      this.inFlight.pauses.incrementAndGet();
+      for (ConnectConsumer consumer : this.consumers.values()) {
+        consumer.cancel();
+      }
+    } else if (this.inFlight.paused && this.inFlight.recovered()) {
+      log.info("poll() - {} bytes in flight, resuming consumers.", this.inFlight.bytes());
+      this.inFlight.paused = false;
+      for (ConnectConsumer consumer : this.consumers.values()) {
+        if (null != consumer.prefetch && consumer.prefetch.pending()) {
+          // Started by the controller once its deliveries were acknowledged.
+          continue;
+        }
+        consume(consumer);
       }
     }
+  }
 
+  /**
+   * Opens the connection to the broker. Overridden by the benchmarks to run against an in-process stand-in.
+   */
+  Connection newConnection() throws IOException, TimeoutException {
+    ConnectionFactory connectionFactory = this.config.connectionFactory();
+    return null == this.dispatchExecutor ?
+        connectionFactory.newConnection() : connectionFactory.newConnection(this.dispatchExecutor);
+  }
+
+  /**
+   * @return the x-stream-offset to resume a stream from, the offset after the last one stored by Connect or
+   * rabbitmq.stream.offset.start if nothing has been stored for the queue yet.
+   */
+  Object streamOffset(String queue) {
+    final Map<String, Object> stored = this.context.offsetStorageReader().offset(
+        ImmutableMap.of(SourceRecordBuilder.PARTITION_QUEUE, queue)
+    );
+    final Object offset = null == stored ? null : stored.get(SourceRecordBuilder.OFFSET_STREAM);
+    if (offset instanceof Number) {
+      return ((Number) offset).longValue() + 1L;
+    }
+    return this.config.streamOffsetStart;
   }
 
   @Override
   public void commitRecord(SourceRecord record) throws InterruptedException {
-    Long deliveryTag = (Long) record.sourceOffset().get("deliveryTag");
+    this.inFlight.remove(record);
+    if (0L == this.uncommitted.decrementAndGet()) {
+      synchronized (this.committed) {
+        this.committed.notifyAll();
+      }
+    }
+    final Map<String, ?> sourceOffset = record.sourceOffset();
+    if (!sourceOffset.containsKey(SourceRecordBuilder.OFFSET_DELIVERY_TAG)) {
+      // Stream records are acknowledged as soon as they are received.
+      return;
+    }
+    final long deliveryTag = ((Number) sourceOffset.get(SourceRecordBuilder.OFFSET_DELIVERY_TAG)).longValue();
+    final int channelNumber = ((Number) sourceOffset.get(SourceRecordBuilder.OFFSET_CHANNEL)).intValue();
+    final ConnectConsumer consumer = this.consumers.get(channelNumber);
+    if (null == consumer) {
+      log.warn("commitRecord() - Could not find consumer for channel {}. deliveryTag {} will not be acknowledged.", channelNumber, deliveryTag);
+      return;
+    }
+    final int epoch = ((Number) sourceOffset.get(SourceRecordBuilder.OFFSET_EPOCH)).intValue();
     try {
-      this.channel.basicAck(deliveryTag, false);
+      consumer.commit(deliveryTag, epoch);
     } catch (IOException e) {
       throw new RetriableException(e);
     }
@@ -93,21 +259,128 @@ public class RabbitMQSourceTask extends SourceTask {
 
   @Override
   public List<SourceRecord> poll() throws InterruptedException {
-    List<SourceRecord> batch = new ArrayList<>(4096);
+    if (this.stopping) {
+      return null;
+    }
+    boolean pendingAcks = false;
+    for (ConnectConsumer consumer : this.consumers.values()) {
+      try {
+        consumer.acks.maybeFlush();
+        if (null != consumer.prefetch) {
+          consumer.prefetch.maybeAdjust();
+        }
+      } catch (IOException e) {
+        throw new RetriableException(e);
+      }
+      pendingAcks |= consumer.acks.hasPending();
+      if (null != consumer.conversionFailure) {
+        throw new ConnectException("Exception thrown while converting deliveries.", consumer.conversionFailure);
+      }
+    }
+
+    try {
+      maybePause();
+    } catch (IOException e) {
+      throw new RetriableException(e);
+    }
 
-    while (!this.records.drain(batch)) {
-      Thread.sleep(1000);
+    // Wake up in time to flush pending acknowledgements, the broker may be waiting on them to deliver more.
+    final long timeoutMs = pendingAcks ?
+        Math.min(this.config.pollTimeoutMs, this.config.ackFlushIntervalMs) : this.config.pollTimeoutMs;
+    final List<SourceRecord> batch = this.batch;
+    batch.clear();
+
+    final boolean drained = this.records.drain(
+        batch, this.config.batchMaxRecords, this.config.batchMaxBytes, this.config.batchLingerMs, timeoutMs
+    );
+    this.metrics.polled(this.consumers.values(), this.records, batch.size());
+    if (!drained) {
+      return null;
     }
+    this.uncommitted.addAndGet(batch.size());
 
     return batch;
   }
 
+  /**
+   * Shuts down in stages so a rebalance only redelivers what Kafka did not get. Consumers are cancelled, buffered
+   * records are dropped and the metrics are unregistered here, a task restarted on this worker registers them again
+   * under the same name. The rest runs on a separate thread: Connect calls stop() while holding the
+   * lock the producer callbacks need before commitRecord can be called again, so waiting here would block the
+   * very commits being waited for. That thread gives the records that were already returned by poll() until
+   * rabbitmq.stop.commit.timeout.ms to be committed, then every channel acknowledges what was committed and
+   * requeues the rest, and the connection is closed.
+   */
   @Override
   public void stop() {
-    try {
-      this.connection.close();
-    } catch (IOException e) {
-      log.error("Exception thrown while closing connection.", e);
+    this.stopping = true;
+    if (null != this.consumers) {
+      for (ConnectConsumer consumer : this.consumers.values()) {
+        try {
+          consumer.cancel();
+        } catch (IOException | ShutdownSignalException e) {
+          log.warn("Exception thrown while cancelling consumer for channel {}.", consumer.channel.getChannelNumber(), e);
+        }
+      }
+    }
+    if (null != this.records) {
+      this.records.close();
+      final int purged = this.records.purge(record -> true);
+      log.info("stop() - Dropped {} buffered records, they will be requeued.", purged);
+    }
+    if (null != this.conversion) {
+      this.conversion.close();
+    }
+    if (null != this.metrics) {
+      this.metrics.close();
+    }
+    this.shutdown = new Thread(this::shutdown, "rabbitmq-source-stop");
+    this.shutdown.setDaemon(true);
+    this.shutdown.start();
+  }
+
+  void shutdown() {
+    if (null != this.config) {
+      awaitCommits(this.config.stopCommitTimeoutMs);
+    }
+    if (null != this.consumers) {
+      for (ConnectConsumer consumer : this.consumers.values()) {
+        try {
+          consumer.close();
+        } catch (IOException | ShutdownSignalException e) {
+          log.warn("Exception thrown while settling acknowledgements for channel {}.", consumer.channel.getChannelNumber(), e);
+        }
+      }
+    }
+    if (null != this.connection) {
+      try {
+        this.connection.close();
+      } catch (IOException e) {
+        log.error("Exception thrown while closing connection.", e);
+      }
+    }
+    if (null != this.dispatchExecutor) {
+      this.dispatchExecutor.shutdown();
+    }
+  }
+
+  void awaitCommits(long timeoutMs) {
+    final long deadline = System.currentTimeMillis() + timeoutMs;
+    synchronized (this.committed) {
+      long remaining = timeoutMs;
+      while (this.uncommitted.get() > 0L && remaining > 0L) {
+        try {
+          this.committed.wait(remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+        remaining = deadline - System.currentTimeMillis();
+      }
+    }
+    final long uncommitted = this.uncommitted.get();
+    if (uncommitted > 0L) {
+      log.info("shutdown() - {} records were not committed within {} ms, they will be requeued.", uncommitted, timeoutMs);
     }
   }
 }
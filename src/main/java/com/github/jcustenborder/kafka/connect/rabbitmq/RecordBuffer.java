@@ -0,0 +1,371 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.rabbitmq;
+
+import org.apache.kafka.connect.source.SourceRecord;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hand off between the AMQP dispatch thread(s) and {@link RabbitMQSourceTask#poll()}. Unlike polling a
+ * concurrent deque on a fixed sleep, the polling thread is woken as soon as a record is added.
+ * <p>
+ * The buffer is bounded by a number of records and optionally a number of payload bytes. When it is full
+ * {@link #add(SourceRecord, int)} blocks the dispatch thread, which stops the channel from handing over
+ * further deliveries until poll() catches up.
+ * <p>
+ * Deliveries that are converted off the dispatch thread {@link #reserve(int)} their space before they are handed
+ * to the conversion threads, so bodies waiting to be converted count against both bounds as well.
+ */
+class RecordBuffer {
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = this.lock.newCondition();
+  private final Condition notFull = this.lock.newCondition();
+  private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+  private final int maxRecords;
+  private final long maxBytes;
+  private long bytes;
+  private int reserved;
+  private long blockedNanos;
+  private long drainedBufferedNanos;
+  private long drainedMaxBufferedNanos;
+  private boolean closed;
+
+  static class Entry {
+    final SourceRecord record;
+    final int bytes;
+    final long addedNanos;
+
+    Entry(SourceRecord record, int bytes, long addedNanos) {
+      this.record = record;
+      this.bytes = bytes;
+      this.addedNanos = addedNanos;
+    }
+  }
+
+  /**
+   * @param maxRecords maximum number of buffered records.
+   * @param maxBytes   maximum number of buffered payload bytes. 0 for unlimited.
+   */
+  RecordBuffer(int maxRecords, long maxBytes) {
+    this.maxRecords = maxRecords;
+    this.maxBytes = maxBytes;
+  }
+
+  private boolean isFull(int bytes) {
+    if (this.entries.size() + this.reserved >= this.maxRecords) {
+      return true;
+    }
+    // A single record larger than maxBytes is still accepted once the buffer is empty.
+    return this.maxBytes > 0L && (!this.entries.isEmpty() || this.reserved > 0) && this.bytes + bytes > this.maxBytes;
+  }
+
+  /**
+   * Adds a record to the buffer, blocking while the buffer is full.
+   *
+   * @param record record to add.
+   * @param bytes  payload size of the record.
+   * @return false if the buffer was closed and the record was not added.
+   * @throws InterruptedException if the calling thread is interrupted while waiting for space.
+   */
+  boolean add(SourceRecord record, int bytes) throws InterruptedException {
+    return add(record, bytes, System.nanoTime());
+  }
+
+  /**
+   * Adds a record to the buffer, blocking while the buffer is full.
+   *
+   * @param record        record to add.
+   * @param bytes         payload size of the record.
+   * @param receivedNanos {@link System#nanoTime()} the record was received at, used for the time it spent buffered.
+   * @return false if the buffer was closed and the record was not added.
+   * @throws InterruptedException if the calling thread is interrupted while waiting for space.
+   */
+  boolean add(SourceRecord record, int bytes, long receivedNanos) throws InterruptedException {
+    this.lock.lockInterruptibly();
+    try {
+      awaitSpace(bytes);
+      if (this.closed) {
+        return false;
+      }
+      this.entries.addLast(new Entry(record, bytes, receivedNanos));
+      this.bytes += bytes;
+      this.notEmpty.signal();
+      return true;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  private void awaitSpace(int bytes) throws InterruptedException {
+    if (!this.closed && isFull(bytes)) {
+      final long started = System.nanoTime();
+      try {
+        while (!this.closed && isFull(bytes)) {
+          this.notFull.await();
+        }
+      } finally {
+        this.blockedNanos += System.nanoTime() - started;
+      }
+    }
+  }
+
+  /**
+   * Reserves space for a record that is added later with {@link #add(SourceRecord, int, int, long)}, blocking while
+   * the buffer is full.
+   *
+   * @param bytes payload size the record is expected to have.
+   * @return false if the buffer was closed and nothing was reserved.
+   * @throws InterruptedException if the calling thread is interrupted while waiting for space.
+   */
+  boolean reserve(int bytes) throws InterruptedException {
+    this.lock.lockInterruptibly();
+    try {
+      awaitSpace(bytes);
+      if (this.closed) {
+        return false;
+      }
+      this.reserved++;
+      this.bytes += bytes;
+      return true;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Adds a record in place of a reservation, without blocking.
+   *
+   * @param record        record to add.
+   * @param reservedBytes payload size that was passed to {@link #reserve(int)}.
+   * @param bytes         payload size of the record.
+   * @param receivedNanos {@link System#nanoTime()} the record was received at, used for the time it spent buffered.
+   * @return false if the buffer was closed, the reservation is released and the record was not added.
+   */
+  boolean add(SourceRecord record, int reservedBytes, int bytes, long receivedNanos) {
+    this.lock.lock();
+    try {
+      this.reserved--;
+      this.bytes -= reservedBytes;
+      if (this.closed) {
+        this.notFull.signalAll();
+        return false;
+      }
+      this.entries.addLast(new Entry(record, bytes, receivedNanos));
+      this.bytes += bytes;
+      this.notEmpty.signal();
+      if (bytes < reservedBytes) {
+        this.notFull.signalAll();
+      }
+      return true;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Releases a reservation whose record will not be added.
+   *
+   * @param reservedBytes payload size that was passed to {@link #reserve(int)}.
+   */
+  void release(int reservedBytes) {
+    this.lock.lock();
+    try {
+      this.reserved--;
+      this.bytes -= reservedBytes;
+      this.notFull.signalAll();
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Moves buffered records to the supplied batch.
+   *
+   * @param batch      list to add the records to.
+   * @param maxRecords maximum number of records to move.
+   * @param lingerMs   once the first record is available, how long to wait for the batch to fill up to maxRecords.
+   * @param timeoutMs  how long to wait for the first record.
+   * @return true if any records were added to the batch.
+   * @throws InterruptedException if the calling thread is interrupted while waiting.
+   */
+  boolean drain(List<SourceRecord> batch, int maxRecords, long lingerMs, long timeoutMs) throws InterruptedException {
+    return drain(batch, maxRecords, 0L, lingerMs, timeoutMs);
+  }
+
+  /**
+   * Moves buffered records to the supplied batch.
+   *
+   * @param batch      list to add the records to.
+   * @param maxRecords maximum number of records to move.
+   * @param maxBytes   maximum number of payload bytes to move, 0 for unlimited. The first record is always moved.
+   * @param lingerMs   once the first record is available, how long to wait for the batch to fill up to maxRecords
+   *                   or maxBytes.
+   * @param timeoutMs  how long to wait for the first record.
+   * @return true if any records were added to the batch.
+   * @throws InterruptedException if the calling thread is interrupted while waiting.
+   */
+  boolean drain(List<SourceRecord> batch, int maxRecords, long maxBytes, long lingerMs, long timeoutMs) throws InterruptedException {
+    this.lock.lockInterruptibly();
+    try {
+      long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+      while (this.entries.isEmpty() && !this.closed) {
+        if (remaining <= 0L) {
+          return false;
+        }
+        remaining = this.notEmpty.awaitNanos(remaining);
+      }
+
+      long linger = TimeUnit.MILLISECONDS.toNanos(lingerMs);
+      while (this.entries.size() < maxRecords && (maxBytes <= 0L || this.bytes < maxBytes) &&
+          !isFull(0) && !this.closed && linger > 0L) {
+        linger = this.notEmpty.awaitNanos(linger);
+      }
+
+      final long now = System.nanoTime();
+      long bufferedNanos = 0L;
+      long maxBufferedNanos = 0L;
+      int count = 0;
+      long batchBytes = 0L;
+      Entry entry;
+      while (count < maxRecords && null != (entry = this.entries.peekFirst())) {
+        if (maxBytes > 0L && count > 0 && batchBytes + entry.bytes > maxBytes) {
+          break;
+        }
+        this.entries.pollFirst();
+        batch.add(entry.record);
+        batchBytes += entry.bytes;
+        this.bytes -= entry.bytes;
+        final long buffered = now - entry.addedNanos;
+        bufferedNanos += buffered;
+        maxBufferedNanos = Math.max(maxBufferedNanos, buffered);
+        count++;
+      }
+      this.drainedBufferedNanos = bufferedNanos;
+      this.drainedMaxBufferedNanos = maxBufferedNanos;
+      if (count > 0) {
+        this.notFull.signalAll();
+      }
+      return count > 0;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Removes the buffered records that match the predicate, waking up threads blocked in
+   * {@link #add(SourceRecord, int)}.
+   *
+   * @param predicate records to remove.
+   * @return the number of records removed.
+   */
+  int purge(Predicate<SourceRecord> predicate) {
+    this.lock.lock();
+    try {
+      int count = 0;
+      Iterator<Entry> iterator = this.entries.iterator();
+      while (iterator.hasNext()) {
+        final Entry entry = iterator.next();
+        if (predicate.test(entry.record)) {
+          iterator.remove();
+          this.bytes -= entry.bytes;
+          count++;
+        }
+      }
+      if (count > 0) {
+        this.notFull.signalAll();
+      }
+      return count;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  int size() {
+    this.lock.lock();
+    try {
+      return this.entries.size();
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  long bytes() {
+    this.lock.lock();
+    try {
+      return this.bytes;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  int maxRecords() {
+    return this.maxRecords;
+  }
+
+  long maxBytes() {
+    return this.maxBytes;
+  }
+
+  /**
+   * @return total time in nanoseconds that callers of {@link #add(SourceRecord, int)} spent blocked on a full buffer.
+   */
+  long blockedNanos() {
+    this.lock.lock();
+    try {
+      return this.blockedNanos;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * @return total time in nanoseconds the records returned by the last call to
+   * {@link #drain(List, int, long, long)} spent in the buffer. Only meaningful to the draining thread.
+   */
+  long drainedBufferedNanos() {
+    return this.drainedBufferedNanos;
+  }
+
+  /**
+   * @return longest time in nanoseconds a record returned by the last call to
+   * {@link #drain(List, int, long, long)} spent in the buffer. Only meaningful to the draining thread.
+   */
+  long drainedMaxBufferedNanos() {
+    return this.drainedMaxBufferedNanos;
+  }
+
+  /**
+   * Wakes up any thread blocked in {@link #drain(List, int, long, long)} or {@link #add(SourceRecord, int)}.
+   * Records that are still buffered can be drained without waiting, new records are rejected.
+   */
+  void close() {
+    this.lock.lock();
+    try {
+      this.closed = true;
+      this.notEmpty.signalAll();
+      this.notFull.signalAll();
+    } finally {
+      this.lock.unlock();
+    }
+  }
+}
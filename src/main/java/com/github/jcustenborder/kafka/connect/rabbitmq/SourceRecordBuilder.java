@@ -18,36 +18,147 @@ package com.github.jcustenborder.kafka.connect.rabbitmq;
 import com.google.common.collect.ImmutableMap;
 import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.Envelope;
-//import org.apache.kafka.common.protocol.types.Schema;
 import org.apache.kafka.common.utils.SystemTime;
 import org.apache.kafka.common.utils.Time;
+import org.apache.kafka.connect.data.Schema;
 import org.apache.kafka.connect.data.Struct;
-import org.apache.kafka.connect.source.SourceRecord;
+import org.apache.kafka.connect.errors.DataException;
+import org.apache.kafka.connect.header.Headers;
+
+import java.util.Map;
 
 class SourceRecordBuilder {
+  static final String OFFSET_DELIVERY_TAG = "deliveryTag";
+  static final String OFFSET_CHANNEL = "channel";
+  static final String OFFSET_EPOCH = "epoch";
+  static final String PARTITION_QUEUE = "queue";
+  static final String OFFSET_STREAM = "streamOffset";
+  /**
+   * Header RabbitMQ adds to messages consumed from a stream, also the consumer argument to start consuming from.
+   */
+  static final String STREAM_OFFSET_HEADER = "x-stream-offset";
+  /**
+   * One in every TIMING_SAMPLE_MASK + 1 records has its conversion and topic resolution timed.
+   */
+  static final long TIMING_SAMPLE_MASK = 63L;
+
   final RabbitMQSourceConnectorConfig config;
+  final int channelNumber;
+  final String queue;
+  final TopicRouter.Resolver topicResolver;
+  final SourceTaskMetrics metrics;
+  /**
+   * Source partition of every record from the queue. Created once, the number of queues bounds the number of
+   * partitions in the offset store.
+   */
+  final Map<String, String> queuePartition;
+  /**
+   * Decompresses bodies when rabbitmq.content.encoding is DECOMPRESS, otherwise null.
+   */
+  final ContentDecoder contentDecoder;
   Time time = new SystemTime();
+  /**
+   * Incremented by the consumer every time the channel is lost, see {@link ConnectConsumer#epoch}.
+   */
+  int epoch;
+  private long count;
+
+  SourceRecordBuilder(RabbitMQSourceConnectorConfig config, int channelNumber, String queue) {
+    this(config, channelNumber, queue, null);
+  }
 
-  SourceRecordBuilder(RabbitMQSourceConnectorConfig config) {
+  SourceRecordBuilder(RabbitMQSourceConnectorConfig config, int channelNumber, String queue, SourceTaskMetrics metrics) {
     this.config = config;
+    this.channelNumber = channelNumber;
+    this.queue = queue;
+    this.metrics = metrics;
+    this.queuePartition = ImmutableMap.of(PARTITION_QUEUE, queue);
+    this.topicResolver = null == config.topicRouter ? null : config.topicRouter.resolver();
+    this.contentDecoder = RabbitMQSourceConnectorConfig.ContentEncoding.DECOMPRESS == config.contentEncoding ?
+        new ContentDecoder(config.contentEncodingMaxBytes) : null;
+  }
+
+  /**
+   * @param basicProperties properties of the delivery.
+   * @param body            message body.
+   * @return the decompressed body when rabbitmq.content.encoding is DECOMPRESS and the contentEncoding is supported,
+   * otherwise the body itself.
+   */
+  byte[] decode(AMQP.BasicProperties basicProperties, byte[] body) {
+    return null != this.contentDecoder && ContentDecoder.compressed(basicProperties.getContentEncoding()) ?
+        this.contentDecoder.decode(basicProperties.getContentEncoding(), body) : body;
+  }
+
+  DeliveredRecord sourceRecord(String consumerTag, Envelope envelope, AMQP.BasicProperties basicProperties, byte[] body) {
+    return decodedRecord(consumerTag, envelope, basicProperties, decode(basicProperties, body));
   }
 
-  SourceRecord sourceRecord(String consumerTag, Envelope envelope, AMQP.BasicProperties basicProperties, byte[] bytes) {
+  /**
+   * Builds the record from a body that was already passed through {@link #decode(AMQP.BasicProperties, byte[])}.
+   */
+  DeliveredRecord decodedRecord(String consumerTag, Envelope envelope, AMQP.BasicProperties basicProperties, byte[] bytes) {
+    final boolean timed = null != this.metrics && 0L == (++this.count & TIMING_SAMPLE_MASK);
+    final long started = timed ? System.nanoTime() : 0L;
+
+    final boolean compressed = RabbitMQSourceConnectorConfig.ContentEncoding.NONE != this.config.contentEncoding &&
+        ContentDecoder.compressed(basicProperties.getContentEncoding());
+
     Struct key = MessageConverter.key(basicProperties);
-    Struct value = MessageConverter.value(consumerTag, envelope, basicProperties, bytes);
-    final String topic = this.config.kafkaTopic.execute(RabbitMQSourceConnectorConfig.KAFKA_TOPIC_TEMPLATE, value);
-    String messageBody = value.getString("body");
+    final Struct message;
+    final Schema valueSchema;
+    final Object value;
+    if (RabbitMQSourceConnectorConfig.PayloadFormat.BYTES == this.config.payloadFormat ||
+        (compressed && RabbitMQSourceConnectorConfig.ContentEncoding.PASSTHROUGH == this.config.contentEncoding)) {
+      // The body is handed to Kafka as is, without decoding or copying it.
+      message = null;
+      valueSchema = Schema.BYTES_SCHEMA;
+      value = bytes;
+    } else {
+      message = MessageConverter.value(consumerTag, envelope, basicProperties, bytes);
+      valueSchema = Schema.STRING_SCHEMA;
+      value = message.getString(MessageConverter.FIELD_MESSAGE_BODY);
+    }
+    final Headers headers = this.config.recordHeadersEnabled ?
+        MessageConverter.recordHeaders(basicProperties, this.config.recordHeadersProperties) : null;
+    final long converted = timed ? System.nanoTime() : 0L;
+
+    String topic = null == this.topicResolver ? null : this.topicResolver.topic(this.queue, envelope, basicProperties);
+    if (null == topic) {
+      topic = this.config.kafkaTopic.execute(RabbitMQSourceConnectorConfig.KAFKA_TOPIC_TEMPLATE, null == message ? key : message);
+    }
+
+    if (timed) {
+      this.metrics.convertTime.record(converted - started);
+      this.metrics.topicTime.record(System.nanoTime() - converted);
+    }
 
-    return new SourceRecord(
-        ImmutableMap.of("routingKey", envelope.getRoutingKey()),
-        ImmutableMap.of("deliveryTag", envelope.getDeliveryTag()),
+    // Queue messages carry the delivery tag and channel to route the ack. They have no meaning after a restart,
+    // the broker redelivers whatever was not acknowledged.
+    final Map<String, ?> sourceOffset = RabbitMQSourceConnectorConfig.SourceMode.STREAM == this.config.sourceMode ?
+        ImmutableMap.of(OFFSET_STREAM, streamOffset(basicProperties)) :
+        ImmutableMap.of(OFFSET_DELIVERY_TAG, envelope.getDeliveryTag(), OFFSET_CHANNEL, this.channelNumber, OFFSET_EPOCH, this.epoch);
+
+    return new DeliveredRecord(
+        this.queuePartition,
+        sourceOffset,
         topic,
-        null,
         key.schema(),
         key,
-        org.apache.kafka.connect.data.Schema.STRING_SCHEMA,
-        messageBody,
-        null == basicProperties.getTimestamp() ? this.time.milliseconds() : basicProperties.getTimestamp().getTime()
+        valueSchema,
+        value,
+        null == basicProperties.getTimestamp() ? this.time.milliseconds() : basicProperties.getTimestamp().getTime(),
+        headers,
+        bytes.length
     );
   }
+
+  static long streamOffset(AMQP.BasicProperties basicProperties) {
+    final Object offset = null == basicProperties.getHeaders() ? null : basicProperties.getHeaders().get(STREAM_OFFSET_HEADER);
+    if (!(offset instanceof Number)) {
+      throw new DataException(
+          String.format("Message does not have a numeric %s header. Is the queue a stream?", STREAM_OFFSET_HEADER)
+      );
+    }
+    return ((Number) offset).longValue();
+  }
 }
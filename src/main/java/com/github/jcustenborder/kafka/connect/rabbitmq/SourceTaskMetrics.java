@@ -0,0 +1,277 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.rabbitmq;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.metrics.JmxReporter;
+import org.apache.kafka.common.metrics.MetricConfig;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.metrics.MetricsReporter;
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.common.metrics.stats.Avg;
+import org.apache.kafka.common.metrics.stats.Max;
+import org.apache.kafka.common.metrics.stats.Meter;
+import org.apache.kafka.common.metrics.stats.Percentile;
+import org.apache.kafka.common.metrics.stats.Percentiles;
+import org.apache.kafka.common.utils.Time;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Metrics for a single {@link RabbitMQSourceTask}, registered over JMX as
+ * kafka.connect.rabbitmq:type=rabbitmq-source-task-metrics,connector=...,task=...
+ * <p>
+ * The AMQP dispatch threads only bump per consumer counters. Sensors are recorded from the polling thread, apart
+ * from the sampled conversion timers and ack latency, so the dispatch threads do not contend on them.
+ */
+class SourceTaskMetrics implements AutoCloseable {
+  static final String JMX_PREFIX = "kafka.connect.rabbitmq";
+  static final String GROUP = "rabbitmq-source-task-metrics";
+
+  final Metrics metrics;
+  final Map<String, String> tags;
+  final Sensor deliveries;
+  final Sensor deliveryBytes;
+  final Sensor pollBatchSize;
+  final Sensor bufferedTime;
+  final Sensor bufferedTimeMax;
+  final Sensor ackLatency;
+  final Sensor convertTime;
+  final Sensor topicTime;
+  private long lastDeliveries;
+  private long lastDeliveryBytes;
+
+  SourceTaskMetrics(String connector, String task, int batchMaxRecords) {
+    List<MetricsReporter> reporters = Collections.singletonList(new JmxReporter(JMX_PREFIX));
+    this.metrics = new Metrics(new MetricConfig(), reporters, Time.SYSTEM);
+    this.tags = ImmutableMap.of("connector", connector, "task", task);
+
+    this.deliveries = this.metrics.sensor("deliveries");
+    this.deliveries.add(new Meter(
+        metricName("deliveries-rate", "The number of deliveries received from RabbitMQ per second."),
+        metricName("deliveries-total", "The total number of deliveries received from RabbitMQ.")
+    ));
+    this.deliveryBytes = this.metrics.sensor("delivery-bytes");
+    this.deliveryBytes.add(new Meter(
+        metricName("delivery-bytes-rate", "The number of payload bytes received from RabbitMQ per second."),
+        metricName("delivery-bytes-total", "The total number of payload bytes received from RabbitMQ.")
+    ));
+
+    this.pollBatchSize = this.metrics.sensor("poll-batch-size");
+    this.pollBatchSize.add(metricName("poll-batch-size-avg", "The average number of records returned by poll()."), new Avg());
+    this.pollBatchSize.add(metricName("poll-batch-size-max", "The largest number of records returned by poll()."), new Max());
+    this.pollBatchSize.add(new Percentiles(
+        4 * 1024,
+        Math.max(1, batchMaxRecords),
+        Percentiles.BucketSizing.LINEAR,
+        new Percentile(metricName("poll-batch-size-p50", "The median number of records returned by poll()."), 50),
+        new Percentile(metricName("poll-batch-size-p99", "The 99th percentile of the number of records returned by poll()."), 99)
+    ));
+
+    this.bufferedTime = this.metrics.sensor("buffered-time");
+    this.bufferedTime.add(
+        metricName("buffered-time-avg-ms", "The average time a record spent buffered before being returned by poll()."),
+        new Avg()
+    );
+    this.bufferedTimeMax = this.metrics.sensor("buffered-time-max");
+    this.bufferedTimeMax.add(
+        metricName("buffered-time-max-ms", "The longest time a record spent buffered before being returned by poll()."),
+        new Max()
+    );
+
+    this.ackLatency = this.metrics.sensor("ack-latency");
+    this.ackLatency.add(
+        metricName("ack-latency-avg-ms", "The average time from the oldest delivery covered by a basicAck to the basicAck."),
+        new Avg()
+    );
+    this.ackLatency.add(
+        metricName("ack-latency-max-ms", "The longest time from the oldest delivery covered by a basicAck to the basicAck."),
+        new Max()
+    );
+
+    this.convertTime = this.metrics.sensor("convert-time");
+    this.convertTime.add(
+        metricName("convert-time-avg-ns", "The average time spent converting a delivery to a record, sampled."),
+        new Avg()
+    );
+    this.convertTime.add(
+        metricName("convert-time-max-ns", "The longest time spent converting a delivery to a record, sampled."),
+        new Max()
+    );
+    this.topicTime = this.metrics.sensor("topic-time");
+    this.topicTime.add(
+        metricName("topic-time-avg-ns", "The average time spent resolving the topic of a record, sampled."),
+        new Avg()
+    );
+    this.topicTime.add(
+        metricName("topic-time-max-ns", "The longest time spent resolving the topic of a record, sampled."),
+        new Max()
+    );
+  }
+
+  MetricName metricName(String name, String description) {
+    return this.metrics.metricName(name, GROUP, description, this.tags);
+  }
+
+  /**
+   * Records a batch returned by poll(). Called from the polling thread only.
+   *
+   * @param consumers consumers whose delivery counters are folded into the delivery rates.
+   * @param buffer    buffer the batch was drained from.
+   * @param count     number of records in the batch.
+   */
+  void polled(Collection<ConnectConsumer> consumers, RecordBuffer buffer, int count) {
+    long deliveries = 0;
+    long deliveryBytes = 0;
+    for (ConnectConsumer consumer : consumers) {
+      deliveries += consumer.deliveries.get();
+      deliveryBytes += consumer.deliveryBytes.get();
+    }
+    final long now = Time.SYSTEM.milliseconds();
+    this.deliveries.record(deliveries - this.lastDeliveries, now);
+    this.deliveryBytes.record(deliveryBytes - this.lastDeliveryBytes, now);
+    this.lastDeliveries = deliveries;
+    this.lastDeliveryBytes = deliveryBytes;
+
+    if (count > 0) {
+      this.pollBatchSize.record(count, now);
+      this.bufferedTime.record(buffer.drainedBufferedNanos() / count / 1000000D, now);
+      this.bufferedTimeMax.record(buffer.drainedMaxBufferedNanos() / 1000000D, now);
+    }
+  }
+
+  void buffer(final RecordBuffer buffer) {
+    this.metrics.addMetric(
+        metricName("buffer-records", "The number of records waiting to be returned by poll()."),
+        (config, now) -> buffer.size()
+    );
+    this.metrics.addMetric(
+        metricName("buffer-bytes", "The number of payload bytes waiting to be returned by poll()."),
+        (config, now) -> buffer.bytes()
+    );
+    this.metrics.addMetric(
+        metricName("buffer-capacity-records", "The maximum number of records that can be buffered."),
+        (config, now) -> buffer.maxRecords()
+    );
+    this.metrics.addMetric(
+        metricName("buffer-blocked-time-ms-total", "The total time the AMQP dispatch threads spent blocked on a full buffer."),
+        (config, now) -> buffer.blockedNanos() / 1000000D
+    );
+  }
+
+  void inFlight(final InFlightBytes inFlight) {
+    this.metrics.addMetric(
+        metricName("inflight-bytes", "The payload bytes of records that were delivered and not committed yet."),
+        (config, now) -> inFlight.bytes()
+    );
+    this.metrics.addMetric(
+        metricName("inflight-paused", "1 while consumption is paused because inflight.max.bytes was reached."),
+        (config, now) -> inFlight.paused ? 1D : 0D
+    );
+    this.metrics.addMetric(
+        metricName("inflight-pauses-total", "The number of times consumption was paused by inflight.max.bytes."),
+        (config, now) -> inFlight.pauses.get()
+    );
+  }
+
+  void consumers(Collection<ConnectConsumer> consumers) {
+    final List<ConnectConsumer> snapshot = ImmutableList.copyOf(consumers);
+    this.metrics.addMetric(
+        metricName("consumers", "The number of consumers, each on its own channel."),
+        (config, now) -> snapshot.size()
+    );
+    this.metrics.addMetric(
+        metricName("acks-pending", "The number of committed records that have not been acknowledged to RabbitMQ."),
+        (config, now) -> {
+          long pending = 0;
+          for (ConnectConsumer consumer : snapshot) {
+            pending += consumer.acks.pending();
+          }
+          return pending;
+        }
+    );
+    this.metrics.addMetric(
+        metricName("acks-outstanding", "The number of deliveries that have not been acknowledged to RabbitMQ yet."),
+        (config, now) -> {
+          long outstanding = 0;
+          for (ConnectConsumer consumer : snapshot) {
+            outstanding += consumer.lastDeliveryTag - consumer.acks.acked();
+          }
+          return outstanding;
+        }
+    );
+    this.metrics.addMetric(
+        metricName("prefetch-count", "The sum of the prefetch counts of the consumers."),
+        (config, now) -> {
+          long prefetchCount = 0;
+          for (ConnectConsumer consumer : snapshot) {
+            prefetchCount += consumer.prefetchCount;
+          }
+          return prefetchCount;
+        }
+    );
+    this.metrics.addMetric(
+        metricName("filtered-total", "The total number of deliveries dropped by the rabbitmq.filter.* settings."),
+        (config, now) -> {
+          long filtered = 0;
+          for (ConnectConsumer consumer : snapshot) {
+            filtered += consumer.filtered.get();
+          }
+          return filtered;
+        }
+    );
+    this.metrics.addMetric(
+        metricName("stale-commits-total", "The total number of committed records that were not acknowledged because their channel was lost."),
+        (config, now) -> {
+          long staleCommits = 0;
+          for (ConnectConsumer consumer : snapshot) {
+            staleCommits += consumer.staleCommits.get();
+          }
+          return staleCommits;
+        }
+    );
+    this.metrics.addMetric(
+        metricName("purged-total", "The total number of buffered records dropped because their channel was lost."),
+        (config, now) -> {
+          long purged = 0;
+          for (ConnectConsumer consumer : snapshot) {
+            purged += consumer.purged.get();
+          }
+          return purged;
+        }
+    );
+    this.metrics.addMetric(
+        metricName("ack-frames-total", "The total number of basicAck frames sent to RabbitMQ."),
+        (config, now) -> {
+          long ackFrames = 0;
+          for (ConnectConsumer consumer : snapshot) {
+            ackFrames += consumer.acks.ackFrames();
+          }
+          return ackFrames;
+        }
+    );
+  }
+
+  @Override
+  public void close() {
+    this.metrics.close();
+  }
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.rabbitmq;
+
+import com.rabbitmq.client.BasicProperties;
+import com.rabbitmq.client.Envelope;
+import org.apache.kafka.connect.errors.DataException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolves the Kafka topic for a delivery from the `kafka.topic` template without going through the template
+ * engine. The template is compiled once into a list of segments. A template without placeholders is resolved to
+ * a constant. The supported placeholders are ${routingKey}, ${exchange}, ${queue}, ${messageId} and
+ * ${headers.name}.
+ */
+class TopicRouter {
+  enum Kind {
+    LITERAL,
+    ROUTING_KEY,
+    EXCHANGE,
+    QUEUE,
+    MESSAGE_ID,
+    HEADER
+  }
+
+  static final class Segment {
+    final Kind kind;
+    /**
+     * The literal text, or the header name.
+     */
+    final String text;
+
+    Segment(Kind kind, String text) {
+      this.kind = kind;
+      this.text = text;
+    }
+
+    String value(String queue, Envelope envelope, BasicProperties basicProperties) {
+      final Object result;
+      switch (this.kind) {
+        case LITERAL:
+          return this.text;
+        case ROUTING_KEY:
+          result = envelope.getRoutingKey();
+          break;
+        case EXCHANGE:
+          result = envelope.getExchange();
+          break;
+        case QUEUE:
+          result = queue;
+          break;
+        case MESSAGE_ID:
+          result = null == basicProperties ? null : basicProperties.getMessageId();
+          break;
+        case HEADER:
+          final Map<String, Object> headers = null == basicProperties ? null : basicProperties.getHeaders();
+          result = null == headers ? null : headers.get(this.text);
+          break;
+        default:
+          throw new UnsupportedOperationException(this.kind + " is not supported.");
+      }
+      if (null == result) {
+        throw new DataException(
+            String.format("Could not resolve %s for the topic. deliveryTag = %s", this, envelope.getDeliveryTag())
+        );
+      }
+      return result.toString();
+    }
+
+    @Override
+    public String toString() {
+      return Kind.HEADER == this.kind ? "headers." + this.text : this.kind.name();
+    }
+  }
+
+  final String template;
+  final String constant;
+  final Segment[] segments;
+  final int cacheSize;
+
+  private TopicRouter(String template, List<Segment> segments, int cacheSize) {
+    this.template = template;
+    this.segments = segments.toArray(new Segment[segments.size()]);
+    this.cacheSize = cacheSize;
+
+    StringBuilder constant = new StringBuilder();
+    for (Segment segment : this.segments) {
+      if (Kind.LITERAL != segment.kind) {
+        constant = null;
+        break;
+      }
+      constant.append(segment.text);
+    }
+    this.constant = null == constant ? null : constant.toString();
+  }
+
+  /**
+   * Compiles the topic template.
+   *
+   * @param template  value of kafka.topic.
+   * @param cacheSize number of resolved topic names to cache per resolver.
+   * @return the router, or null if the template uses expressions that have to be evaluated by the template engine.
+   */
+  static TopicRouter compile(String template, int cacheSize) {
+    if (usesDirectives(template)) {
+      return null;
+    }
+    List<Segment> segments = new ArrayList<>();
+    int position = 0;
+    while (position < template.length()) {
+      final int start = template.indexOf("${", position);
+      if (-1 == start) {
+        segments.add(new Segment(Kind.LITERAL, template.substring(position)));
+        break;
+      }
+      final int end = template.indexOf('}', start);
+      if (-1 == end) {
+        return null;
+      }
+      if (start > position) {
+        segments.add(new Segment(Kind.LITERAL, template.substring(position, start)));
+      }
+      final Segment segment = placeholder(template.substring(start + 2, end).trim());
+      if (null == segment) {
+        return null;
+      }
+      segments.add(segment);
+      position = end + 1;
+    }
+    return new TopicRouter(template, segments, cacheSize);
+  }
+
+  /**
+   * @return true if the template has FreeMarker directives, macros or numerical interpolations. The text around
+   * them is not literal so the template has to be evaluated by the template engine.
+   */
+  static boolean usesDirectives(String template) {
+    return template.contains("<#") || template.contains("</#") || template.contains("<@") || template.contains("#{");
+  }
+
+  static Segment placeholder(String name) {
+    switch (name) {
+      case "routingKey":
+        return new Segment(Kind.ROUTING_KEY, null);
+      case "exchange":
+        return new Segment(Kind.EXCHANGE, null);
+      case "queue":
+        return new Segment(Kind.QUEUE, null);
+      case "messageId":
+        return new Segment(Kind.MESSAGE_ID, null);
+      default:
+        if (name.startsWith("headers.") && name.length() > "headers.".length()) {
+          return new Segment(Kind.HEADER, name.substring("headers.".length()));
+        }
+        return null;
+    }
+  }
+
+  /**
+   * @return a resolver with its own cache. Resolvers are not thread safe.
+   */
+  Resolver resolver() {
+    return new Resolver();
+  }
+
+  class Resolver {
+    final Segment dynamic;
+    final Map<String, String> cache;
+
+    Resolver() {
+      Segment dynamic = null;
+      int count = 0;
+      for (Segment segment : segments) {
+        if (Kind.LITERAL != segment.kind) {
+          dynamic = segment;
+          count++;
+        }
+      }
+      // Topics that depend on a single value are cached by that value.
+      if (1 == count && cacheSize > 0) {
+        this.dynamic = dynamic;
+        this.cache = new LinkedHashMap<String, String>(16, 0.75F, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > cacheSize;
+          }
+        };
+      } else {
+        this.dynamic = null;
+        this.cache = null;
+      }
+    }
+
+    String topic(String queue, Envelope envelope, BasicProperties basicProperties) {
+      if (null != constant) {
+        return constant;
+      }
+      if (null != this.cache) {
+        final String key = this.dynamic.value(queue, envelope, basicProperties);
+        String topic = this.cache.get(key);
+        if (null == topic) {
+          topic = build(queue, envelope, basicProperties);
+          this.cache.put(key, topic);
+        }
+        return topic;
+      }
+      return build(queue, envelope, basicProperties);
+    }
+
+    String build(String queue, Envelope envelope, BasicProperties basicProperties) {
+      StringBuilder builder = new StringBuilder(template.length() + 32);
+      for (Segment segment : segments) {
+        builder.append(segment.value(queue, envelope, basicProperties));
+      }
+      return builder.toString();
+    }
+  }
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.rabbitmq;
+
+import com.rabbitmq.client.Channel;
+import org.apache.kafka.common.utils.Time;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.anyBoolean;
+import static org.mockito.Mockito.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AckCoalescerTest {
+  Channel channel;
+  Time time;
+  AckCoalescer acks;
+
+  @BeforeEach
+  public void before() {
+    this.channel = mock(Channel.class);
+    this.time = mock(Time.class);
+    when(this.time.milliseconds()).thenReturn(0L);
+    this.acks = new AckCoalescer(this.channel, 3, 100L, this.time);
+  }
+
+  @Test
+  public void contiguous() throws IOException {
+    this.acks.commit(1L);
+    this.acks.commit(2L);
+    verify(this.channel, never()).basicAck(anyLong(), anyBoolean());
+    this.acks.commit(3L);
+    verify(this.channel).basicAck(3L, true);
+    assertEquals(3L, this.acks.acked());
+    assertFalse(this.acks.hasPending());
+  }
+
+  @Test
+  public void gap() throws IOException {
+    this.acks.commit(1L);
+    this.acks.commit(3L);
+    this.acks.commit(4L);
+    verify(this.channel).basicAck(1L, true);
+    assertEquals(2, this.acks.pending());
+
+    this.acks.commit(2L);
+    verify(this.channel).basicAck(4L, true);
+    assertEquals(2L, this.acks.ackFrames());
+    assertFalse(this.acks.hasPending());
+  }
+
+  @Test
+  public void interval() throws IOException {
+    this.acks.commit(1L);
+    this.acks.maybeFlush();
+    verify(this.channel, never()).basicAck(anyLong(), anyBoolean());
+
+    when(this.time.milliseconds()).thenReturn(100L);
+    this.acks.maybeFlush();
+    verify(this.channel).basicAck(1L, true);
+  }
+
+  @Test
+  public void duplicate() throws IOException {
+    this.acks.commit(1L);
+    this.acks.flush();
+    this.acks.commit(1L);
+    assertFalse(this.acks.hasPending());
+    this.acks.commit(2L);
+    assertTrue(this.acks.hasPending());
+  }
+
+  @Test
+  public void listener() throws IOException {
+    final List<Long> acknowledged = new ArrayList<>();
+    this.acks.listener = (firstDeliveryTag, lastDeliveryTag) -> {
+      acknowledged.add(firstDeliveryTag);
+      acknowledged.add(lastDeliveryTag);
+    };
+    this.acks.commit(1L);
+    this.acks.commit(2L);
+    this.acks.commit(3L);
+    this.acks.commit(4L);
+    this.acks.flush();
+    assertEquals(Arrays.asList(1L, 3L, 4L, 4L), acknowledged);
+  }
+
+  @Test
+  public void reset() throws IOException {
+    this.acks.commit(2L);
+    this.acks.reset(5L);
+    assertFalse(this.acks.hasPending());
+    this.acks.commit(3L);
+    assertFalse(this.acks.hasPending(), "Tags from before the reset should be ignored.");
+    this.acks.commit(6L);
+    this.acks.flush();
+    verify(this.channel).basicAck(6L, true);
+  }
+
+  @Test
+  public void close() throws IOException {
+    this.acks.commit(1L);
+    this.acks.commit(3L);
+    this.acks.commit(4L);
+    verify(this.channel).basicAck(1L, true);
+
+    this.acks.close(6L);
+    verify(this.channel).basicAck(3L, false);
+    verify(this.channel).basicAck(4L, false);
+    verify(this.channel).basicNack(6L, true, true);
+    assertEquals(6L, this.acks.acked());
+    assertFalse(this.acks.hasPending());
+  }
+}
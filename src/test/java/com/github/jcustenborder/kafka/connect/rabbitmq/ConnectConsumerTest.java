@@ -0,0 +1,245 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.rabbitmq;
+
+import com.google.common.collect.ImmutableMap;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.ShutdownSignalException;
+import org.apache.kafka.common.utils.Time;
+import org.apache.kafka.connect.errors.DataException;
+import org.apache.kafka.connect.source.SourceRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.anyBoolean;
+import static org.mockito.Mockito.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ConnectConsumerTest {
+  RabbitMQSourceConnectorConfig config;
+  Channel channel;
+  RecordBuffer records;
+  SourceTaskMetrics metrics;
+  ConnectConsumer consumer;
+
+  @BeforeEach
+  public void before() {
+    this.config = SourceRecordBuilderTest.config(ImmutableMap.of());
+    this.channel = mock(Channel.class);
+    when(this.channel.getChannelNumber()).thenReturn(1);
+    this.records = new RecordBuffer(100, 0L);
+    this.metrics = new SourceTaskMetrics("test", "0", this.config.batchMaxRecords);
+    AckCoalescer acks = new AckCoalescer(this.channel, 100, 100L, Time.SYSTEM);
+    this.consumer = new ConnectConsumer(this.records, this.config, this.channel, "queue", acks, this.metrics);
+  }
+
+  @AfterEach
+  public void after() {
+    this.metrics.close();
+  }
+
+  void deliver(long deliveryTag) throws IOException {
+    this.consumer.handleDelivery(
+        "consumerTag",
+        new Envelope(deliveryTag, false, "exchange", "routing.key"),
+        SourceRecordBuilderTest.BASIC_PROPERTIES,
+        SourceRecordBuilderTest.BODY
+    );
+  }
+
+  @Test
+  public void recovery() throws Exception {
+    deliver(1L);
+    deliver(2L);
+    List<SourceRecord> batch = new ArrayList<>();
+    assertTrue(this.records.drain(batch, 1, 0L, 10L));
+    final SourceRecord sent = batch.get(0);
+
+    this.consumer.handleShutdownSignal("consumerTag", mock(ShutdownSignalException.class));
+    assertEquals(0, this.records.size(), "Records of the lost channel should be purged.");
+    assertEquals(1L, this.consumer.purged.get());
+
+    // Kafka commits the record that was already sent, its ack would hit the wrong message on the new channel.
+    this.consumer.commit(1L, ((Number) sent.sourceOffset().get(SourceRecordBuilder.OFFSET_EPOCH)).intValue());
+    this.consumer.acks.flush();
+    verify(this.channel, never()).basicAck(anyLong(), anyBoolean());
+    assertEquals(1L, this.consumer.staleCommits.get());
+
+    // Redelivered on the recovered channel, tags start over.
+    deliver(1L);
+    batch.clear();
+    assertTrue(this.records.drain(batch, 1, 0L, 10L));
+    final SourceRecord redelivered = batch.get(0);
+    assertEquals(1, redelivered.sourceOffset().get(SourceRecordBuilder.OFFSET_EPOCH));
+    this.consumer.commit(1L, 1);
+    this.consumer.acks.flush();
+    verify(this.channel).basicAck(1L, true);
+  }
+
+  @Test
+  public void conversionPool() throws Exception {
+    ConversionPool conversion = new ConversionPool(4);
+    try {
+      this.consumer.conversion = conversion.executor;
+      for (long deliveryTag = 1L; deliveryTag <= 100L; deliveryTag++) {
+        deliver(deliveryTag);
+      }
+      List<SourceRecord> batch = new ArrayList<>();
+      while (batch.size() < 100) {
+        assertTrue(this.records.drain(batch, 100 - batch.size(), 0L, 1000L), "Records should be converted on the pool.");
+      }
+      for (int i = 0; i < batch.size(); i++) {
+        assertEquals(i + 1L, batch.get(i).sourceOffset().get(SourceRecordBuilder.OFFSET_DELIVERY_TAG), "Records should stay in delivery order.");
+      }
+      assertEquals(0L, this.records.bytes(), "Reservations should be replaced by the records.");
+      assertTrue(this.consumer.converted.isEmpty());
+    } finally {
+      conversion.close();
+    }
+  }
+
+  @Test
+  public void conversionOutOfOrder() throws Exception {
+    InFlightBytes inFlight = new InFlightBytes(0L);
+    this.consumer.inFlight = inFlight;
+    List<Runnable> tasks = new ArrayList<>();
+    this.consumer.conversion = tasks::add;
+    for (long deliveryTag = 1L; deliveryTag <= 3L; deliveryTag++) {
+      deliver(deliveryTag);
+    }
+    assertEquals(3L * SourceRecordBuilderTest.BODY.length, this.records.bytes(), "Queued bodies should reserve buffer space.");
+    assertEquals(3L * SourceRecordBuilderTest.BODY.length, inFlight.bytes(), "Queued bodies should be in flight.");
+
+    tasks.get(2).run();
+    tasks.get(1).run();
+    assertEquals(0, this.records.size(), "Records should wait for the first delivery.");
+    tasks.get(0).run();
+    assertEquals(3, this.records.size());
+
+    List<SourceRecord> batch = new ArrayList<>();
+    assertTrue(this.records.drain(batch, 3, 0L, 10L));
+    for (int i = 0; i < batch.size(); i++) {
+      assertEquals(i + 1L, batch.get(i).sourceOffset().get(SourceRecordBuilder.OFFSET_DELIVERY_TAG));
+    }
+    assertEquals(3L * SourceRecordBuilderTest.BODY.length, inFlight.bytes());
+  }
+
+  @Test
+  public void conversionFailure() throws Exception {
+    final DataException failure = new DataException("conversion failed");
+    Time time = mock(Time.class);
+    when(time.milliseconds()).thenThrow(failure);
+    this.consumer.sourceRecordBuilder.time = time;
+
+    // Thrown from handleDelivery the client would close the channel, and recovery would not reopen it.
+    deliver(1L);
+    assertSame(failure, this.consumer.conversionFailure, "The failure should be left for poll() to fail the task.");
+    assertEquals(0, this.records.size());
+    this.consumer.acks.flush();
+    verify(this.channel, never()).basicAck(anyLong(), anyBoolean());
+  }
+
+  @Test
+  public void inFlight() throws Exception {
+    InFlightBytes inFlight = new InFlightBytes(2L * SourceRecordBuilderTest.BODY.length);
+    this.consumer.inFlight = inFlight;
+    deliver(1L);
+    assertFalse(inFlight.exhausted());
+    deliver(2L);
+    assertTrue(inFlight.exhausted());
+
+    List<SourceRecord> batch = new ArrayList<>();
+    assertTrue(this.records.drain(batch, 1, 0L, 10L));
+    inFlight.remove(batch.get(0));
+    assertTrue(inFlight.recovered());
+
+    // Buffered records of a lost channel are never committed, purging them has to release their bytes.
+    this.consumer.handleShutdownSignal("consumerTag", mock(ShutdownSignalException.class));
+    assertEquals(0L, inFlight.bytes());
+  }
+
+  @Test
+  public void filterDecompressedBody() throws Exception {
+    RabbitMQSourceConnectorConfig config = SourceRecordBuilderTest.config(ImmutableMap.of(
+        RabbitMQSourceConnectorConfig.CONTENT_ENCODING_CONF, "DECOMPRESS",
+        RabbitMQSourceConnectorConfig.FILTER_BODY_CONTAINS_CONF, "secret"
+    ));
+    AckCoalescer acks = new AckCoalescer(this.channel, 1, 100L, Time.SYSTEM);
+    ConnectConsumer consumer = new ConnectConsumer(this.records, config, this.channel, "queue", acks, this.metrics);
+    consumer.handleDelivery(
+        "consumerTag",
+        new Envelope(1L, false, "exchange", "routing.key"),
+        ContentDecoderTest.contentEncoding("gzip"),
+        ContentDecoderTest.compress("{\"secret\": true}".getBytes(StandardCharsets.UTF_8), GZIPOutputStream::new)
+    );
+    assertEquals(1L, consumer.filtered.get(), "The filter should see the decompressed body.");
+    assertEquals(0, this.records.size());
+    verify(this.channel).basicAck(1L, true);
+
+    consumer.handleDelivery(
+        "consumerTag",
+        new Envelope(2L, false, "exchange", "routing.key"),
+        ContentDecoderTest.contentEncoding("gzip"),
+        ContentDecoderTest.compress(SourceRecordBuilderTest.BODY, GZIPOutputStream::new)
+    );
+    assertEquals(1L, consumer.filtered.get());
+    assertEquals(1, this.records.size());
+  }
+
+  @Test
+  public void undecodableBody() throws Exception {
+    RabbitMQSourceConnectorConfig config = SourceRecordBuilderTest.config(ImmutableMap.of(
+        RabbitMQSourceConnectorConfig.CONTENT_ENCODING_CONF, "DECOMPRESS",
+        RabbitMQSourceConnectorConfig.CONTENT_ENCODING_MAX_BYTES_CONF, "1024"
+    ));
+    AckCoalescer acks = new AckCoalescer(this.channel, 1, 100L, Time.SYSTEM);
+    ConnectConsumer consumer = new ConnectConsumer(this.records, config, this.channel, "queue", acks, this.metrics);
+    final byte[] gzip = ContentDecoderTest.compress(ContentDecoderTest.body(100), GZIPOutputStream::new);
+    gzip[gzip.length - 8]++;
+    consumer.handleDelivery(
+        "consumerTag", new Envelope(1L, false, "exchange", "routing.key"), ContentDecoderTest.contentEncoding("gzip"), gzip
+    );
+    assertTrue(consumer.conversionFailure instanceof DataException, "A corrupt body should fail the task.");
+
+    consumer.conversionFailure = null;
+    consumer.handleDelivery(
+        "consumerTag",
+        new Envelope(2L, false, "exchange", "routing.key"),
+        ContentDecoderTest.contentEncoding("gzip"),
+        ContentDecoderTest.compress(ContentDecoderTest.body(2048), GZIPOutputStream::new)
+    );
+    assertTrue(consumer.conversionFailure instanceof DataException, "A body over the maximum size should fail the task.");
+
+    assertEquals(0, this.records.size());
+    verify(this.channel, never()).basicAck(anyLong(), anyBoolean());
+    verify(this.channel, never()).close();
+  }
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.rabbitmq;
+
+import com.google.common.collect.ImmutableMap;
+import com.rabbitmq.client.AMQP;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.errors.DataException;
+import org.apache.kafka.connect.source.SourceRecord;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ContentDecoderTest {
+  interface Compressor {
+    OutputStream wrap(OutputStream outputStream) throws IOException;
+  }
+
+  static byte[] compress(byte[] body, Compressor compressor) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    try (OutputStream compressed = compressor.wrap(outputStream)) {
+      compressed.write(body);
+    }
+    return outputStream.toByteArray();
+  }
+
+  static byte[] body(int size) {
+    byte[] body = new byte[size];
+    for (int i = 0; i < size; i++) {
+      body[i] = (byte) ('a' + i % 26);
+    }
+    return body;
+  }
+
+  static AMQP.BasicProperties contentEncoding(String contentEncoding) {
+    return new AMQP.BasicProperties.Builder().messageId("asdf").contentEncoding(contentEncoding).build();
+  }
+
+  @Test
+  public void decode() throws IOException {
+    ContentDecoder decoder = new ContentDecoder(ContentDecoder.MAX_BUFFER_SIZE);
+    // Larger than the initial buffer so it has to grow.
+    final byte[] body = body(3 * ContentDecoder.INITIAL_BUFFER_SIZE + 17);
+    assertArrayEquals(body, decoder.decode("gzip", compress(body, GZIPOutputStream::new)));
+    assertArrayEquals(body, decoder.decode("deflate", compress(body, DeflaterOutputStream::new)));
+    assertArrayEquals(body, decoder.decode("lz4", compress(body, LZ4FrameOutputStream::new)));
+    assertArrayEquals(body, decoder.decode("GZIP", compress(body, GZIPOutputStream::new)), "the same decoder should be reusable.");
+    assertSame(body, decoder.decode("identity", body), "unsupported encodings should be left untouched.");
+  }
+
+  @Test
+  public void corrupt() throws IOException {
+    ContentDecoder decoder = new ContentDecoder(ContentDecoder.MAX_BUFFER_SIZE);
+    final byte[] gzip = compress(body(100), GZIPOutputStream::new);
+    assertThrows(DataException.class, () -> decoder.decode("gzip", Arrays.copyOf(gzip, gzip.length - 4)));
+    gzip[gzip.length - 8]++;
+    assertThrows(DataException.class, () -> decoder.decode("gzip", gzip));
+    assertThrows(DataException.class, () -> decoder.decode("deflate", body(100)));
+    assertThrows(DataException.class, () -> decoder.decode("lz4", body(100)));
+  }
+
+  @Test
+  public void maxBytes() throws IOException {
+    final byte[] body = body(3 * ContentDecoder.INITIAL_BUFFER_SIZE + 17);
+    final byte[] gzip = compress(body, GZIPOutputStream::new);
+    final byte[] deflate = compress(body, DeflaterOutputStream::new);
+    final byte[] lz4 = compress(body, LZ4FrameOutputStream::new);
+
+    ContentDecoder decoder = new ContentDecoder(body.length);
+    assertArrayEquals(body, decoder.decode("gzip", gzip), "a body of exactly maxBytes should be accepted.");
+    assertArrayEquals(body, decoder.decode("deflate", deflate));
+    assertArrayEquals(body, decoder.decode("lz4", lz4));
+
+    ContentDecoder limited = new ContentDecoder(body.length - 1);
+    assertThrows(DataException.class, () -> limited.decode("gzip", gzip));
+    assertThrows(DataException.class, () -> limited.decode("deflate", deflate));
+    assertThrows(DataException.class, () -> limited.decode("lz4", lz4));
+    assertThrows(DataException.class, () -> new ContentDecoder(100).decode("gzip", gzip), "smaller than the initial buffer.");
+  }
+
+  @Test
+  public void decompress() throws IOException {
+    SourceRecordBuilder builder = new SourceRecordBuilder(
+        SourceRecordBuilderTest.config(ImmutableMap.of(RabbitMQSourceConnectorConfig.CONTENT_ENCODING_CONF, "DECOMPRESS")),
+        1,
+        "queue"
+    );
+    SourceRecord record = builder.sourceRecord(
+        "consumerTag",
+        SourceRecordBuilderTest.ENVELOPE,
+        contentEncoding("gzip"),
+        compress(SourceRecordBuilderTest.BODY, GZIPOutputStream::new)
+    );
+    assertEquals(Schema.STRING_SCHEMA, record.valueSchema());
+    assertEquals(new String(SourceRecordBuilderTest.BODY, StandardCharsets.UTF_8), record.value());
+    assertEquals(SourceRecordBuilderTest.BODY.length, ((DeliveredRecord) record).bytes, "the decompressed size should be charged.");
+  }
+
+  @Test
+  public void passthrough() throws IOException {
+    SourceRecordBuilder builder = new SourceRecordBuilder(
+        SourceRecordBuilderTest.config(ImmutableMap.of(RabbitMQSourceConnectorConfig.CONTENT_ENCODING_CONF, "PASSTHROUGH")),
+        1,
+        "queue"
+    );
+    final byte[] body = compress(SourceRecordBuilderTest.BODY, GZIPOutputStream::new);
+    SourceRecord record = builder.sourceRecord("consumerTag", SourceRecordBuilderTest.ENVELOPE, contentEncoding("gzip"), body);
+    assertEquals(Schema.BYTES_SCHEMA, record.valueSchema());
+    assertSame(body, record.value(), "compressed body should be passed through untouched.");
+
+    record = builder.sourceRecord("consumerTag", SourceRecordBuilderTest.ENVELOPE, contentEncoding(null), SourceRecordBuilderTest.BODY);
+    assertEquals(Schema.STRING_SCHEMA, record.valueSchema(), "uncompressed bodies should still be decoded.");
+  }
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.rabbitmq;
+
+import com.google.common.collect.ImmutableMap;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.impl.LongStringHelper;
+import org.apache.kafka.common.utils.Time;
+import org.apache.kafka.connect.source.SourceRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Single threaded cost of a delivery travelling through the task: {@link ConnectConsumer#handleDelivery} converts and
+ * buffers it, {@link RabbitMQSourceTask#poll()} hands it to the caller and {@link RabbitMQSourceTask#commitRecord}
+ * acknowledges it. Throughput and sampled latency are reported, the gc profiler that the benchmark profile enables
+ * reports gc.alloc.rate.norm for the bytes allocated per delivery.
+ * <pre>
+ * mvn -Pbenchmark verify -DskipTests -Dbenchmark.includes=DeliveryBenchmark
+ * </pre>
+ * Results are written to target/jmh-result.json, keep a copy of it from before a change to compare against.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeliveryBenchmark {
+  static final int CHANNEL_NUMBER = 1;
+
+  @Param({"64", "1024", "65536"})
+  public int bodySize;
+
+  @Param({"0", "10"})
+  public int headerCount;
+
+  @Param({"STRING", "BYTES"})
+  public String payloadFormat;
+
+  RabbitMQSourceTask task;
+  ConnectConsumer consumer;
+  AMQP.BasicProperties basicProperties;
+  byte[] body;
+  long deliveryTag;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    Map<String, String> settings = new LinkedHashMap<>();
+    settings.put(RabbitMQSourceConnectorConfig.TOPIC_CONF, "benchmark");
+    settings.put(RabbitMQSourceConnectorConfig.QUEUE_CONF, "benchmark");
+    settings.put(RabbitMQSourceConnectorConfig.PAYLOAD_FORMAT_CONF, this.payloadFormat);
+    RabbitMQSourceConnectorConfig config = new RabbitMQSourceConnectorConfig(settings);
+
+    // stubOnly keeps mockito from recording every basicAck for the length of the run.
+    Channel channel = mock(Channel.class, withSettings().stubOnly());
+    when(channel.getChannelNumber()).thenReturn(CHANNEL_NUMBER);
+
+    this.task = new RabbitMQSourceTask();
+    this.task.config = config;
+    this.task.records = new RecordBuffer(config.bufferMaxRecords, config.bufferMaxBytes);
+    this.task.metrics = new SourceTaskMetrics("benchmark", "0", config.batchMaxRecords);
+    AckCoalescer acks = new AckCoalescer(channel, config.ackMaxPending, config.ackFlushIntervalMs, Time.SYSTEM);
+    this.consumer = new ConnectConsumer(this.task.records, config, channel, "benchmark", acks, this.task.metrics);
+    this.task.consumers = ImmutableMap.of(CHANNEL_NUMBER, this.consumer);
+
+    Map<String, Object> headers = new LinkedHashMap<>();
+    for (int i = 0; i < this.headerCount; i++) {
+      headers.put("header-" + i, i % 2 == 0 ? LongStringHelper.asLongString("value-" + i) : (Object) (long) i);
+    }
+    this.basicProperties = new AMQP.BasicProperties.Builder()
+        .messageId("message-id")
+        .contentType("application/json")
+        .timestamp(new Date(1500691965123L))
+        .headers(headers)
+        .build();
+
+    // Printable ascii so STRING mode decodes a realistic body.
+    this.body = new byte[this.bodySize];
+    Arrays.fill(this.body, (byte) 'a');
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.task.records.close();
+    this.task.metrics.close();
+  }
+
+  Envelope nextEnvelope() {
+    return new Envelope(++this.deliveryTag, false, "exchange", "routing.key");
+  }
+
+  @Benchmark
+  public SourceRecord sourceRecord() {
+    return this.consumer.sourceRecordBuilder.sourceRecord("consumer-tag", nextEnvelope(), this.basicProperties, this.body);
+  }
+
+  @Benchmark
+  public List<SourceRecord> deliverPollCommit() throws IOException, InterruptedException {
+    this.consumer.handleDelivery("consumer-tag", nextEnvelope(), this.basicProperties, this.body);
+    List<SourceRecord> records = this.task.poll();
+    for (SourceRecord record : records) {
+      this.task.commitRecord(record);
+    }
+    return records;
+  }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.rabbitmq;
+
+import com.google.common.collect.ImmutableMap;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.impl.LongStringHelper;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DeliveryFiltersTest {
+  static final Envelope ENVELOPE = new Envelope(1L, false, "exchange", "routing.key");
+  static final AMQP.BasicProperties NO_HEADERS = new AMQP.BasicProperties.Builder().build();
+
+  static byte[] bytes(String s) {
+    return s.getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void bytePatternMatcher() {
+    BytePatternMatcher matcher = new BytePatternMatcher(Arrays.asList(bytes("he"), bytes("she"), bytes("his"), bytes("hers")));
+    assertTrue(matcher.matches(bytes("ushers")));
+    assertTrue(matcher.matches(bytes("ahis")));
+    assertFalse(matcher.matches(bytes("hi")));
+    assertFalse(matcher.matches(new byte[0]));
+
+    // The failure transition out of "abc" has to find "bc".
+    matcher = new BytePatternMatcher(Arrays.asList(bytes("abcd"), bytes("bc")));
+    assertTrue(matcher.matches(bytes("xabcx")));
+    assertFalse(matcher.matches(bytes("abd")));
+  }
+
+  @Test
+  public void defaultFiltersPing() {
+    DeliveryFilter filter = DeliveryFilters.of(SourceRecordBuilderTest.config(ImmutableMap.of()));
+    assertTrue(filter.matches(ENVELOPE, NO_HEADERS, bytes("GET /ping/ping HTTP/1.1")));
+    assertFalse(filter.matches(ENVELOPE, NO_HEADERS, bytes("{\"id\": 1}")));
+  }
+
+  @Test
+  public void none() {
+    DeliveryFilter filter = DeliveryFilters.of(
+        SourceRecordBuilderTest.config(ImmutableMap.of(RabbitMQSourceConnectorConfig.FILTER_BODY_CONTAINS_CONF, ""))
+    );
+    assertSame(DeliveryFilters.NONE, filter);
+  }
+
+  @Test
+  public void routingKeysAndExchanges() {
+    DeliveryFilter filter = DeliveryFilters.of(
+        SourceRecordBuilderTest.config(
+            ImmutableMap.of(
+                RabbitMQSourceConnectorConfig.FILTER_ROUTING_KEYS_CONF, "routing.key",
+                RabbitMQSourceConnectorConfig.FILTER_EXCHANGES_CONF, "audit"
+            )
+        )
+    );
+    assertTrue(filter.matches(ENVELOPE, NO_HEADERS, bytes("")));
+    assertTrue(filter.matches(new Envelope(1L, false, "audit", "other"), NO_HEADERS, bytes("")));
+    assertFalse(filter.matches(new Envelope(1L, false, "exchange", "other"), NO_HEADERS, bytes("")));
+  }
+
+  @Test
+  public void headers() {
+    DeliveryFilter filter = DeliveryFilters.of(
+        SourceRecordBuilderTest.config(
+            ImmutableMap.of(RabbitMQSourceConnectorConfig.FILTER_HEADERS_CONF, "x-healthcheck,source=monitor")
+        )
+    );
+    assertTrue(filter.matches(ENVELOPE, headers(ImmutableMap.of("x-healthcheck", true)), bytes("")));
+    assertTrue(filter.matches(ENVELOPE, headers(ImmutableMap.of("source", LongStringHelper.asLongString("monitor"))), bytes("")));
+    assertFalse(filter.matches(ENVELOPE, headers(ImmutableMap.of("source", "orders")), bytes("")));
+    assertFalse(filter.matches(ENVELOPE, NO_HEADERS, bytes("")));
+  }
+
+  @Test
+  public void headerValues() {
+    DeliveryFilter filter = DeliveryFilters.of(
+        SourceRecordBuilderTest.config(
+            ImmutableMap.of(RabbitMQSourceConnectorConfig.FILTER_HEADERS_CONF, "source=monitor,source=healthcheck")
+        )
+    );
+    assertTrue(filter.matches(ENVELOPE, headers(ImmutableMap.of("source", "monitor")), bytes("")));
+    assertTrue(filter.matches(ENVELOPE, headers(ImmutableMap.of("source", "healthcheck")), bytes("")));
+    assertFalse(filter.matches(ENVELOPE, headers(ImmutableMap.of("source", "orders")), bytes("")));
+  }
+
+  static AMQP.BasicProperties headers(ImmutableMap<String, Object> headers) {
+    return new AMQP.BasicProperties.Builder().headers(headers).build();
+  }
+}
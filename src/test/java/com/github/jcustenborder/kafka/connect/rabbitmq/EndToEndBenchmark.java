@@ -0,0 +1,160 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.rabbitmq;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Connection;
+import org.apache.kafka.connect.source.SourceRecord;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link RabbitMQSourceTask} start, poll and commitRecord in a loop against {@link InProcessBroker}, so prefetch,
+ * acknowledgement and batching settings can be compared without a live broker. Each operation is one poll() with
+ * every returned record committed straight away. The messages and acks counters are reported per second, the
+ * latency from the broker dispatching a message to poll() returning it is printed after every iteration.
+ * <p>
+ * consumerDispatch compares the rabbitmq.consumer.dispatch executors. DEFAULT delivers on the stand-in's dispatch
+ * thread rather than the client's pool, VIRTUAL needs Java 21 or later.
+ * <pre>
+ * mvn -Pbenchmark verify -DskipTests -Dbenchmark.includes=EndToEndBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class EndToEndBenchmark {
+  @Param({"100", "1000"})
+  public String prefetchCount;
+
+  @Param({"1", "4"})
+  public String consumersPerQueue;
+
+  @Param({"1", "1000"})
+  public String ackMaxPending;
+
+  @Param({"500", "4096"})
+  public String batchMaxRecords;
+
+  @Param({"1024"})
+  public int bodySize;
+
+  @Param({"DEFAULT", "FIXED", "CHANNEL", "VIRTUAL"})
+  public String consumerDispatch;
+
+  InProcessBroker broker;
+  RabbitMQSourceTask task;
+  final LatencyHistogram latency = new LatencyHistogram();
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class Counters {
+    public long messages;
+    public long acks;
+    public long ackFrames;
+    long lastAcks;
+    long lastAckFrames;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      this.messages = 0;
+      this.acks = 0;
+      this.ackFrames = 0;
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setup() {
+    this.broker = new InProcessBroker(
+        new AMQP.BasicProperties.Builder().messageId("message-id").contentType("application/json").build(),
+        this.bodySize
+    );
+    Map<String, String> settings = new LinkedHashMap<>();
+    settings.put("name", "benchmark");
+    settings.put(RabbitMQSourceConnectorConfig.TOPIC_CONF, "benchmark");
+    settings.put(RabbitMQSourceConnectorConfig.QUEUE_CONF, "benchmark");
+    settings.put(RabbitMQSourceConnectorConfig.PREFETCH_COUNT_CONF, this.prefetchCount);
+    settings.put(RabbitMQSourceConnectorConfig.CONSUMERS_PER_QUEUE_CONF, this.consumersPerQueue);
+    settings.put(RabbitMQSourceConnectorConfig.ACK_MAX_PENDING_CONF, this.ackMaxPending);
+    settings.put(RabbitMQSourceConnectorConfig.BATCH_MAX_RECORDS_CONF, this.batchMaxRecords);
+    settings.put(RabbitMQConnectorConfig.CONSUMER_DISPATCH_CONFIG, this.consumerDispatch);
+
+    final InProcessBroker broker = this.broker;
+    this.task = new RabbitMQSourceTask() {
+      @Override
+      Connection newConnection() throws IOException {
+        return broker.connection(this.dispatchExecutor);
+      }
+    };
+    this.task.start(settings);
+  }
+
+  @TearDown(Level.Iteration)
+  public void printLatency() {
+    System.out.println();
+    System.out.println("dispatch to poll latency: " + this.latency.summary("us", 1000L));
+    this.latency.reset();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.task.stop();
+  }
+
+  @Benchmark
+  public List<SourceRecord> pollAndCommit(Counters counters) throws InterruptedException {
+    List<SourceRecord> records = this.task.poll();
+    if (null != records) {
+      for (SourceRecord record : records) {
+        final Map<String, ?> offset = record.sourceOffset();
+        this.latency.record(this.broker.sinceDispatch(
+            ((Number) offset.get(SourceRecordBuilder.OFFSET_CHANNEL)).intValue(),
+            ((Number) offset.get(SourceRecordBuilder.OFFSET_DELIVERY_TAG)).longValue()
+        ));
+        this.task.commitRecord(record);
+      }
+      counters.messages += records.size();
+    }
+    final long acks = this.broker.acked.get();
+    final long ackFrames = this.broker.ackFrames.get();
+    counters.acks += acks - counters.lastAcks;
+    counters.ackFrames += ackFrames - counters.lastAckFrames;
+    counters.lastAcks = acks;
+    counters.lastAckFrames = ackFrames;
+    return records;
+  }
+}
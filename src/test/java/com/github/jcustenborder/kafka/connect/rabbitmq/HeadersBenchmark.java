@@ -0,0 +1,93 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.rabbitmq;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.impl.LongStringHelper;
+import org.apache.kafka.connect.data.Struct;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of converting AMQP headers to HeaderValue structs. The benchmark profile runs with the gc profiler, see
+ * gc.alloc.rate.norm for the allocation per operation:
+ * <pre>
+ * mvn -Pbenchmark verify -DskipTests -Dbenchmark.includes=HeadersBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HeadersBenchmark {
+  @Param({"0", "10", "100"})
+  public int headerCount;
+
+  AMQP.BasicProperties basicProperties;
+
+  @Setup
+  public void setup() {
+    Map<String, Object> headers = new LinkedHashMap<>();
+    for (int i = 0; i < this.headerCount; i++) {
+      final Object value;
+      switch (i % 4) {
+        case 0:
+          value = LongStringHelper.asLongString("value-" + i);
+          break;
+        case 1:
+          value = (long) i;
+          break;
+        case 2:
+          value = i % 3 == 0;
+          break;
+        default:
+          value = new Date(1500691965123L + i);
+          break;
+      }
+      headers.put("header-" + i, value);
+    }
+    this.basicProperties = new AMQP.BasicProperties.Builder()
+        .messageId("message-id")
+        .headers(headers)
+        .build();
+  }
+
+  @Benchmark
+  public Map<String, Struct> headers() {
+    return MessageConverter.headers(this.basicProperties);
+  }
+
+  @Benchmark
+  public Struct basicProperties() {
+    return MessageConverter.basicProperties(this.basicProperties);
+  }
+}
@@ -0,0 +1,267 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.rabbitmq;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.Envelope;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyBoolean;
+import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.anyLong;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * In-process stand-in for a broker with an endless supply of identical messages. Every channel gets its own dispatch
+ * thread that delivers while the consumer has prefetch credit left, so backpressure from the task and the ack pattern
+ * it sends shape throughput the way they would against a real broker. Only the calls the source task makes are
+ * implemented.
+ * <p>
+ * Without an executor the dispatch thread calls the consumer itself. With one it stands in for the connection's
+ * reader thread and hands deliveries to the executor the way the client's work pool does, at most
+ * {@link #DISPATCH_BATCH_SIZE} at a time for a channel and never two for the same channel concurrently.
+ */
+class InProcessBroker {
+  /**
+   * Dispatch times are kept in a ring indexed by delivery tag. It has to be larger than the number of deliveries a
+   * channel can have outstanding, prefetch plus the task's buffer.
+   */
+  static final int DISPATCH_RING_SIZE = 1 << 17;
+  static final int DISPATCH_BATCH_SIZE = 16;
+
+  final AMQP.BasicProperties basicProperties;
+  final byte[] body;
+  final List<StandInChannel> channels = new ArrayList<>();
+  final AtomicLong delivered = new AtomicLong();
+  final AtomicLong acked = new AtomicLong();
+  final AtomicLong ackFrames = new AtomicLong();
+  ExecutorService executor;
+
+  InProcessBroker(AMQP.BasicProperties basicProperties, int bodySize) {
+    this.basicProperties = basicProperties;
+    this.body = new byte[bodySize];
+    Arrays.fill(this.body, (byte) 'a');
+  }
+
+  Connection connection(ExecutorService executor) throws IOException {
+    this.executor = executor;
+    return connection();
+  }
+
+  Connection connection() throws IOException {
+    Connection connection = mock(Connection.class, withSettings().stubOnly());
+    when(connection.createChannel()).then(invocation -> newChannel().channel);
+    doAnswer(invocation -> {
+      close();
+      return null;
+    }).when(connection).close();
+    return connection;
+  }
+
+  synchronized StandInChannel newChannel() throws IOException {
+    StandInChannel channel = new StandInChannel(this.channels.size() + 1);
+    this.channels.add(channel);
+    return channel;
+  }
+
+  synchronized StandInChannel channel(int channelNumber) {
+    return this.channels.get(channelNumber - 1);
+  }
+
+  synchronized void close() {
+    for (StandInChannel channel : this.channels) {
+      channel.close();
+    }
+  }
+
+  /**
+   * Nanos between the broker dispatching the delivery and now.
+   */
+  long sinceDispatch(int channelNumber, long deliveryTag) {
+    return System.nanoTime() - channel(channelNumber).dispatchNanos[(int) (deliveryTag & (DISPATCH_RING_SIZE - 1))];
+  }
+
+  class StandInChannel {
+    final int channelNumber;
+    final Channel channel;
+    final long[] dispatchNanos = new long[DISPATCH_RING_SIZE];
+    int prefetchCount;
+    Semaphore credits;
+    Thread dispatcher;
+    long ackFloor;
+    BitSet ackedAboveFloor = new BitSet();
+    final Queue<Runnable> work = new ConcurrentLinkedQueue<>();
+    final AtomicBoolean scheduled = new AtomicBoolean();
+
+    StandInChannel(int channelNumber) throws IOException {
+      this.channelNumber = channelNumber;
+      this.channel = mock(Channel.class, withSettings().stubOnly());
+      when(this.channel.getChannelNumber()).thenReturn(channelNumber);
+      doAnswer(invocation -> {
+        this.prefetchCount = invocation.getArgument(0);
+        return null;
+      }).when(this.channel).basicQos(anyInt(), anyBoolean());
+      when(this.channel.basicConsume(anyString(), any(Consumer.class))).then(invocation ->
+          consume(invocation.getArgument(0), invocation.getArgument(1))
+      );
+      when(this.channel.basicConsume(anyString(), anyBoolean(), any(Consumer.class))).then(invocation ->
+          consume(invocation.getArgument(0), invocation.getArgument(2))
+      );
+      doAnswer(invocation -> {
+        ack(invocation.getArgument(0), invocation.getArgument(1));
+        return null;
+      }).when(this.channel).basicAck(anyLong(), anyBoolean());
+      // Requeued messages are not redelivered, they only give the credit back.
+      doAnswer(invocation -> {
+        ack(invocation.getArgument(0), invocation.getArgument(1));
+        return null;
+      }).when(this.channel).basicNack(anyLong(), anyBoolean(), anyBoolean());
+      doAnswer(invocation -> {
+        cancel();
+        return null;
+      }).when(this.channel).basicCancel(anyString());
+      doAnswer(invocation -> {
+        close();
+        return null;
+      }).when(this.channel).close();
+    }
+
+    synchronized String consume(String queue, Consumer consumer) {
+      final String consumerTag = "stand-in-" + this.channelNumber;
+      // A prefetch of zero is unlimited, the task's buffer is then the only thing holding dispatch back.
+      this.credits = 0 == this.prefetchCount ? null : new Semaphore(this.prefetchCount);
+      final Semaphore credits = this.credits;
+      this.dispatcher = new Thread(() -> dispatch(queue, consumerTag, consumer, credits), consumerTag);
+      this.dispatcher.setDaemon(true);
+      consumer.handleConsumeOk(consumerTag);
+      this.dispatcher.start();
+      return consumerTag;
+    }
+
+    void dispatch(String queue, String consumerTag, Consumer consumer, Semaphore credits) {
+      long deliveryTag = 0;
+      try {
+        while (!Thread.currentThread().isInterrupted()) {
+          if (null != credits) {
+            credits.acquire();
+          }
+          deliveryTag++;
+          this.dispatchNanos[(int) (deliveryTag & (DISPATCH_RING_SIZE - 1))] = System.nanoTime();
+          final Envelope envelope = new Envelope(deliveryTag, false, "stand-in", queue);
+          if (null == executor) {
+            deliver(consumerTag, consumer, envelope);
+          } else {
+            this.work.add(() -> deliver(consumerTag, consumer, envelope));
+            schedule();
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    void deliver(String consumerTag, Consumer consumer, Envelope envelope) {
+      try {
+        consumer.handleDelivery(consumerTag, envelope, InProcessBroker.this.basicProperties, InProcessBroker.this.body);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+      delivered.incrementAndGet();
+    }
+
+    void schedule() {
+      if (!this.work.isEmpty() && this.scheduled.compareAndSet(false, true)) {
+        executor.execute(this::runBatch);
+      }
+    }
+
+    void runBatch() {
+      for (int i = 0; i < DISPATCH_BATCH_SIZE; i++) {
+        final Runnable delivery = this.work.poll();
+        if (null == delivery) {
+          break;
+        }
+        delivery.run();
+      }
+      this.scheduled.set(false);
+      schedule();
+    }
+
+    /**
+     * Tracks acknowledgements the way the broker does, a floor below which everything is acknowledged and the
+     * individually acknowledged tags above it. Credit is returned for each message that was not acknowledged before.
+     */
+    synchronized void ack(long deliveryTag, boolean multiple) {
+      ackFrames.incrementAndGet();
+      if (deliveryTag <= this.ackFloor) {
+        return;
+      }
+      final int released;
+      if (multiple) {
+        final int span = (int) (deliveryTag - this.ackFloor);
+        released = span - this.ackedAboveFloor.get(0, span).cardinality();
+        this.ackedAboveFloor = this.ackedAboveFloor.get(span, Math.max(span, this.ackedAboveFloor.length()));
+        this.ackFloor = deliveryTag;
+      } else {
+        final int index = (int) (deliveryTag - this.ackFloor - 1);
+        if (this.ackedAboveFloor.get(index)) {
+          return;
+        }
+        this.ackedAboveFloor.set(index);
+        released = 1;
+      }
+      final int contiguous = this.ackedAboveFloor.nextClearBit(0);
+      if (contiguous > 0) {
+        this.ackedAboveFloor = this.ackedAboveFloor.get(contiguous, Math.max(contiguous, this.ackedAboveFloor.length()));
+        this.ackFloor += contiguous;
+      }
+      acked.addAndGet(released);
+      if (null != this.credits) {
+        this.credits.release(released);
+      }
+    }
+
+    synchronized void cancel() {
+      if (null != this.dispatcher) {
+        this.dispatcher.interrupt();
+        this.dispatcher = null;
+      }
+    }
+
+    void close() {
+      cancel();
+    }
+  }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.rabbitmq;
+
+import java.util.Arrays;
+
+/**
+ * Allocation free latency histogram with 16 linear sub-buckets per power of two, so values are kept to within about
+ * 6%. Not thread safe.
+ */
+class LatencyHistogram {
+  static final int SUB_BUCKET_BITS = 4;
+  static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  final long[] counts = new long[(64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS];
+  long total;
+  long max;
+
+  void record(long nanos) {
+    final long value = Math.max(0L, nanos);
+    this.counts[index(value)]++;
+    this.total++;
+    this.max = Math.max(this.max, value);
+  }
+
+  static int index(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    // value >>> shift lands in [SUB_BUCKETS, 2 * SUB_BUCKETS), its low bits pick the sub-bucket.
+    final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+  }
+
+  static long upperBound(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    final int shift = index / SUB_BUCKETS - 1;
+    final long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+    return ((subBucket + 1) << shift) - 1;
+  }
+
+  long percentile(double percentile) {
+    if (0 == this.total) {
+      return 0L;
+    }
+    final long rank = (long) Math.ceil(this.total * percentile / 100D);
+    long seen = 0;
+    for (int i = 0; i < this.counts.length; i++) {
+      seen += this.counts[i];
+      if (seen >= rank) {
+        return Math.min(upperBound(i), this.max);
+      }
+    }
+    return this.max;
+  }
+
+  void reset() {
+    Arrays.fill(this.counts, 0L);
+    this.total = 0;
+    this.max = 0;
+  }
+
+  String summary(String unitName, long nanosPerUnit) {
+    return String.format(
+        "count=%d p50=%.1f%s p90=%.1f%s p99=%.1f%s p99.9=%.1f%s max=%.1f%s",
+        this.total,
+        percentile(50) / (double) nanosPerUnit, unitName,
+        percentile(90) / (double) nanosPerUnit, unitName,
+        percentile(99) / (double) nanosPerUnit, unitName,
+        percentile(99.9) / (double) nanosPerUnit, unitName,
+        this.max / (double) nanosPerUnit, unitName
+    );
+  }
+}
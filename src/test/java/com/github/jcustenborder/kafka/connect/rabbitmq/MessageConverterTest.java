@@ -16,15 +16,18 @@
 package com.github.jcustenborder.kafka.connect.rabbitmq;
 
 import com.google.common.collect.ImmutableMap;
+import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.BasicProperties;
 import com.rabbitmq.client.Envelope;
 import com.rabbitmq.client.impl.LongStringHelper;
 import org.apache.kafka.connect.data.Schema;
 import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.header.Headers;
 import org.junit.jupiter.api.DynamicTest;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestFactory;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
@@ -32,6 +35,7 @@ import java.util.Map;
 import java.util.stream.Stream;
 
 import static com.github.jcustenborder.kafka.connect.utils.AssertStruct.assertStruct;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
@@ -136,5 +140,52 @@ public class MessageConverterTest {
     }));
   }
 
+  @Test
+  public void recordHeaders() {
+    final Map<String, Object> input = ImmutableMap.of(
+        "string", "value",
+        "longString", LongStringHelper.asLongString("binary"),
+        "int", 12,
+        "timestamp", new Date(1500691965123L)
+    );
+    final AMQP.BasicProperties basicProperties = new AMQP.BasicProperties.Builder()
+        .headers(input)
+        .contentType("application/json")
+        .build();
+
+    final Headers actual = MessageConverter.recordHeaders(
+        basicProperties,
+        Arrays.asList(MessageConverter.FIELD_BASIC_PROPERTIES_CONTENTTYPE, MessageConverter.FIELD_BASIC_PROPERTIES_APPID)
+    );
+    assertEquals(5, actual.size(), "appId is null and should be skipped.");
+    assertEquals(Schema.STRING_SCHEMA, actual.lastWithName("string").schema());
+    assertEquals("value", actual.lastWithName("string").value());
+    assertEquals(Schema.BYTES_SCHEMA, actual.lastWithName("longString").schema());
+    assertArrayEquals("binary".getBytes(StandardCharsets.UTF_8), (byte[]) actual.lastWithName("longString").value());
+    assertEquals(12, actual.lastWithName("int").value());
+    assertEquals(new Date(1500691965123L), actual.lastWithName("timestamp").value());
+    assertEquals("application/json", actual.lastWithName("amqp.contentType").value());
+  }
 
+  @Test
+  public void recordHeadersNested() {
+    final Map<String, Object> death = ImmutableMap.<String, Object>of(
+        "count", 1L,
+        "reason", LongStringHelper.asLongString("rejected"),
+        "queue", LongStringHelper.asLongString("orders"),
+        "time", new Date(1500691965123L),
+        "routing-keys", Arrays.<Object>asList(LongStringHelper.asLongString("orders"))
+    );
+    final AMQP.BasicProperties basicProperties = new AMQP.BasicProperties.Builder()
+        .headers(ImmutableMap.<String, Object>of(
+            "x-death", Arrays.<Object>asList(death),
+            "x-first-death-reason", LongStringHelper.asLongString("rejected")
+        ))
+        .build();
+
+    final Headers actual = MessageConverter.recordHeaders(basicProperties, Arrays.<String>asList());
+    assertEquals(1, actual.size(), "x-death should be skipped.");
+    assertNull(actual.lastWithName("x-death"));
+    assertNotNull(actual.lastWithName("x-first-death-reason"));
+  }
 }
@@ -0,0 +1,164 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.rabbitmq;
+
+import com.google.common.collect.ImmutableMap;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Envelope;
+import org.apache.kafka.common.utils.Time;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.anyBoolean;
+import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PrefetchControllerTest {
+  RabbitMQSourceConnectorConfig config;
+  Channel channel;
+  Time time;
+  RecordBuffer records;
+  SourceTaskMetrics metrics;
+  ConnectConsumer consumer;
+  PrefetchController controller;
+  List<ConnectConsumer> consumed;
+
+  @BeforeEach
+  public void before() {
+    this.config = SourceRecordBuilderTest.config(
+        ImmutableMap.of(
+            RabbitMQSourceConnectorConfig.PREFETCH_ADAPTIVE_ENABLED_CONF, "true",
+            RabbitMQSourceConnectorConfig.PREFETCH_MIN_CONF, "10",
+            RabbitMQSourceConnectorConfig.PREFETCH_MAX_CONF, "210",
+            RabbitMQSourceConnectorConfig.PREFETCH_ADAPTIVE_INTERVAL_MS_CONF, "1000"
+        )
+    );
+    this.channel = mock(Channel.class);
+    when(this.channel.getChannelNumber()).thenReturn(1);
+    this.time = mock(Time.class);
+    when(this.time.milliseconds()).thenReturn(0L);
+    this.records = new RecordBuffer(100, 0L);
+    this.metrics = new SourceTaskMetrics("test", "0", this.config.batchMaxRecords);
+    AckCoalescer acks = new AckCoalescer(this.channel, 100, 100L, this.time);
+    this.consumer = new ConnectConsumer(this.records, this.config, this.channel, "queue", acks, this.metrics);
+    this.consumer.prefetchCount = 20;
+    this.consumer.consumerTag = "consumerTag";
+    this.consumed = new ArrayList<>();
+    this.controller = new PrefetchController(this.consumer, this.records, this.config, consumer -> {
+      consumer.consumerTag = "restarted";
+      this.consumed.add(consumer);
+    }, this.time);
+  }
+
+  @AfterEach
+  public void after() {
+    this.metrics.close();
+  }
+
+  @Test
+  public void next() {
+    assertEquals(10, this.controller.step);
+    assertEquals(30, this.controller.next(20, 0, 100, 20L), "starved consumer should grow");
+    assertEquals(210, this.controller.next(205, 0, 100, 205L), "should not grow past the maximum");
+    assertEquals(20, this.controller.next(20, 0, 100, 5L), "consumer with prefetch left should not change");
+    assertEquals(20, this.controller.next(20, 50, 100, 20L), "half full buffer should not change");
+    assertEquals(50, this.controller.next(100, 80, 100, 100L), "full buffer should halve");
+    assertEquals(10, this.controller.next(12, 80, 100, 12L), "should not shrink past the minimum");
+  }
+
+  void deliver(long count) throws IOException {
+    for (long deliveryTag = 1L; deliveryTag <= count; deliveryTag++) {
+      this.consumer.handleDelivery(
+          "consumerTag",
+          new Envelope(deliveryTag, false, "exchange", "routing.key"),
+          SourceRecordBuilderTest.BASIC_PROPERTIES,
+          SourceRecordBuilderTest.BODY
+      );
+    }
+  }
+
+  void acknowledge(long count) throws IOException {
+    for (long deliveryTag = 1L; deliveryTag <= count; deliveryTag++) {
+      this.consumer.commit(deliveryTag, this.consumer.epoch);
+    }
+    this.consumer.acks.flush();
+  }
+
+  @Test
+  public void increase() throws IOException {
+    deliver(20L);
+    this.records.purge(record -> true);
+
+    this.controller.maybeAdjust();
+    verify(this.channel, never()).basicQos(anyInt(), anyBoolean());
+
+    when(this.time.milliseconds()).thenReturn(1000L);
+    this.controller.maybeAdjust();
+    verify(this.channel).basicCancel("consumerTag");
+    assertTrue(this.controller.pending());
+    verify(this.channel, never()).basicQos(anyInt(), anyBoolean());
+    assertTrue(this.consumed.isEmpty(), "consumer should wait for its unacknowledged deliveries.");
+
+    acknowledge(19L);
+    this.controller.maybeAdjust();
+    assertTrue(this.consumed.isEmpty(), "one delivery is still unacknowledged.");
+
+    acknowledge(20L);
+    this.controller.maybeAdjust();
+    verify(this.channel).basicQos(30, false);
+    assertEquals(1, this.consumed.size(), "consumer should be started again to pick up the prefetch.");
+    assertEquals(30, this.consumer.prefetchCount);
+    assertFalse(this.controller.pending());
+  }
+
+  @Test
+  public void decrease() throws IOException {
+    deliver(80L);
+    when(this.time.milliseconds()).thenReturn(1000L);
+    this.controller.maybeAdjust();
+    verify(this.channel).basicCancel("consumerTag");
+    assertTrue(this.consumed.isEmpty(), "80 deliveries over the new prefetch of 10 are still unacknowledged.");
+
+    acknowledge(80L);
+    this.controller.maybeAdjust();
+    verify(this.channel).basicQos(10, false);
+    assertEquals(1, this.consumed.size());
+    assertEquals(10, this.consumer.prefetchCount);
+  }
+
+  @Test
+  public void paused() throws IOException {
+    this.consumer.consumerTag = null;
+    this.consumer.inFlight = new InFlightBytes(1L);
+    this.consumer.inFlight.paused = true;
+    this.controller.apply(50);
+    verify(this.channel).basicQos(50, false);
+    verify(this.channel, never()).basicCancel(anyString());
+    assertTrue(this.consumed.isEmpty(), "paused consumer should pick the prefetch up when it resumes.");
+  }
+}
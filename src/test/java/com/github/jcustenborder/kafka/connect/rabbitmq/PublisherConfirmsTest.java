@@ -0,0 +1,119 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.rabbitmq;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.errors.ConnectException;
+import org.apache.kafka.connect.errors.RetriableException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PublisherConfirmsTest {
+  static final TopicPartition PARTITION_0 = new TopicPartition("topic", 0);
+  static final TopicPartition PARTITION_1 = new TopicPartition("topic", 1);
+  static final Map<TopicPartition, OffsetAndMetadata> CURRENT = ImmutableMap.of(
+      PARTITION_0, new OffsetAndMetadata(100L),
+      PARTITION_1, new OffsetAndMetadata(100L)
+  );
+
+  PublisherConfirms confirms;
+
+  @BeforeEach
+  public void before() {
+    this.confirms = new PublisherConfirms(3, 10L);
+  }
+
+  @Test
+  public void multiple() throws InterruptedException {
+    this.confirms.published(1L, PARTITION_0, 10L);
+    this.confirms.published(2L, PARTITION_1, 20L);
+    this.confirms.published(3L, PARTITION_0, 11L);
+    assertEquals(
+        ImmutableMap.of(PARTITION_0, new OffsetAndMetadata(10L), PARTITION_1, new OffsetAndMetadata(20L)),
+        this.confirms.committable(CURRENT)
+    );
+
+    this.confirms.handleAck(2L, true);
+    assertEquals(1, this.confirms.outstanding());
+    assertEquals(2L, this.confirms.confirmed());
+    assertEquals(
+        ImmutableMap.of(PARTITION_0, new OffsetAndMetadata(11L), PARTITION_1, new OffsetAndMetadata(21L)),
+        this.confirms.committable(CURRENT)
+    );
+
+    this.confirms.handleAck(3L, false);
+    assertEquals(
+        ImmutableMap.of(PARTITION_0, new OffsetAndMetadata(12L), PARTITION_1, new OffsetAndMetadata(21L)),
+        this.confirms.committable(CURRENT)
+    );
+  }
+
+  @Test
+  public void windowFull() throws InterruptedException {
+    this.confirms.published(1L, PARTITION_0, 1L);
+    this.confirms.published(2L, PARTITION_0, 2L);
+    this.confirms.published(3L, PARTITION_0, 3L);
+    assertThrows(RetriableException.class, () -> this.confirms.published(4L, PARTITION_0, 4L));
+    this.confirms.handleAck(1L, false);
+    this.confirms.published(4L, PARTITION_0, 4L);
+    assertEquals(3, this.confirms.outstanding());
+  }
+
+  @Test
+  public void nack() throws InterruptedException {
+    this.confirms.published(1L, PARTITION_0, 1L);
+    this.confirms.published(2L, PARTITION_0, 2L);
+    this.confirms.handleNack(1L, false);
+    this.confirms.handleAck(2L, false);
+    assertEquals(
+        ImmutableMap.of(PARTITION_0, new OffsetAndMetadata(1L)),
+        this.confirms.committable(CURRENT),
+        "Offsets must not advance past a nacked message."
+    );
+    ConnectException exception = assertThrows(ConnectException.class, () -> this.confirms.published(3L, PARTITION_0, 3L));
+    assertTrue(exception.getMessage().contains("nacked"));
+  }
+
+  @Test
+  public void channels() throws InterruptedException {
+    PublisherConfirms other = new PublisherConfirms(3, 10L);
+    this.confirms.published(1L, PARTITION_0, 10L);
+    other.published(1L, PARTITION_0, 11L);
+    this.confirms.published(2L, PARTITION_0, 12L);
+
+    this.confirms.handleAck(2L, true);
+    assertEquals(
+        ImmutableMap.of(PARTITION_0, new OffsetAndMetadata(11L)),
+        PublisherConfirms.committable(Arrays.asList(this.confirms, other), CURRENT),
+        "Offset 11 is still unconfirmed on the other channel."
+    );
+
+    other.handleAck(1L, false);
+    assertEquals(
+        ImmutableMap.of(PARTITION_0, new OffsetAndMetadata(13L)),
+        PublisherConfirms.committable(Arrays.asList(this.confirms, other), CURRENT)
+    );
+  }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.rabbitmq;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class QueueAssignorTest {
+  static final List<String> QUEUES = Arrays.asList("a", "b", "c", "d", "e");
+
+  @Test
+  public void all() {
+    List<List<String>> actual = QueueAssignor.assign(QueueAssignor.Strategy.ALL, QUEUES, ImmutableMap.of(), ImmutableMap.of(), 3);
+    assertEquals(Arrays.asList(QUEUES, QUEUES, QUEUES), actual);
+  }
+
+  @Test
+  public void roundRobin() {
+    List<List<String>> actual = QueueAssignor.assign(QueueAssignor.Strategy.ROUND_ROBIN, QUEUES, ImmutableMap.of(), ImmutableMap.of(), 2);
+    assertEquals(
+        Arrays.asList(
+            Arrays.asList("a", "c", "e"),
+            Arrays.asList("b", "d")
+        ),
+        actual
+    );
+  }
+
+  @Test
+  public void fewerQueuesThanTasks() {
+    List<List<String>> actual = QueueAssignor.assign(QueueAssignor.Strategy.ROUND_ROBIN, ImmutableList.of("a", "b"), ImmutableMap.of(), ImmutableMap.of(), 10);
+    assertEquals(
+        Arrays.asList(
+            Arrays.asList("a"),
+            Arrays.asList("b")
+        ),
+        actual
+    );
+  }
+
+  @Test
+  public void replicas() {
+    List<List<String>> actual = QueueAssignor.assign(
+        QueueAssignor.Strategy.ROUND_ROBIN,
+        ImmutableList.of("hot", "a", "b"),
+        ImmutableMap.of(),
+        ImmutableMap.of("hot", 3),
+        3
+    );
+    assertEquals(
+        Arrays.asList(
+            Arrays.asList("hot", "a"),
+            Arrays.asList("hot", "b"),
+            Arrays.asList("hot")
+        ),
+        actual
+    );
+  }
+
+  @Test
+  public void weighted() {
+    List<List<String>> actual = QueueAssignor.assign(
+        QueueAssignor.Strategy.WEIGHTED,
+        QUEUES,
+        ImmutableMap.of("a", 10, "b", 5),
+        ImmutableMap.of(),
+        3
+    );
+    assertEquals(
+        Arrays.asList(
+            Arrays.asList("a"),
+            Arrays.asList("b"),
+            Arrays.asList("c", "d", "e")
+        ),
+        actual
+    );
+  }
+
+  @Test
+  public void weightedReplicas() {
+    List<List<String>> actual = QueueAssignor.assign(
+        QueueAssignor.Strategy.WEIGHTED,
+        ImmutableList.of("hot", "a", "b"),
+        ImmutableMap.of("hot", 8),
+        ImmutableMap.of("hot", 2),
+        3
+    );
+    assertEquals(
+        Arrays.asList(
+            Arrays.asList("hot"),
+            Arrays.asList("hot"),
+            Arrays.asList("a", "b")
+        ),
+        actual
+    );
+  }
+}
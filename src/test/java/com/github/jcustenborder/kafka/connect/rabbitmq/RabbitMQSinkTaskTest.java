@@ -0,0 +1,67 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.rabbitmq;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class RabbitMQSinkTaskTest {
+  static SinkRecord record(int partition, Object key, long offset) {
+    return new SinkRecord("topic", partition, Schema.OPTIONAL_BYTES_SCHEMA, key, Schema.STRING_SCHEMA, "value", offset);
+  }
+
+  @Test
+  public void body() {
+    assertArrayEquals("value".getBytes(StandardCharsets.UTF_8), RabbitMQSinkTask.body(record(0, null, 0L)));
+  }
+
+  @Test
+  public void shardByPartition() {
+    for (int partition = 0; partition < 10; partition++) {
+      final TopicPartition topicPartition = new TopicPartition("topic", partition);
+      final int expected = RabbitMQSinkTask.shard(
+          RabbitMQSinkConnectorConfig.Sharding.PARTITION, record(partition, "a".getBytes(StandardCharsets.UTF_8), 0L), topicPartition, 4
+      );
+      final int actual = RabbitMQSinkTask.shard(
+          RabbitMQSinkConnectorConfig.Sharding.PARTITION, record(partition, "b".getBytes(StandardCharsets.UTF_8), 1L), topicPartition, 4
+      );
+      assertEquals(expected, actual, "Every record of a partition should be published on the same channel.");
+    }
+  }
+
+  @Test
+  public void shardByKey() {
+    final int expected = RabbitMQSinkTask.shard(
+        RabbitMQSinkConnectorConfig.Sharding.KEY, record(0, "key".getBytes(StandardCharsets.UTF_8), 0L), new TopicPartition("topic", 0), 4
+    );
+    for (int partition = 1; partition < 10; partition++) {
+      final int actual = RabbitMQSinkTask.shard(
+          RabbitMQSinkConnectorConfig.Sharding.KEY,
+          record(partition, "key".getBytes(StandardCharsets.UTF_8), 0L),
+          new TopicPartition("topic", partition),
+          4
+      );
+      assertEquals(expected, actual, "Records with the same key should be published on the same channel.");
+    }
+  }
+}
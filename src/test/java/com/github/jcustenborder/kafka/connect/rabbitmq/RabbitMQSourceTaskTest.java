@@ -0,0 +1,241 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.rabbitmq;
+
+import com.google.common.collect.ImmutableMap;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.Envelope;
+import org.apache.kafka.common.utils.Time;
+import org.apache.kafka.connect.source.SourceRecord;
+import org.apache.kafka.connect.source.SourceTaskContext;
+import org.apache.kafka.connect.storage.OffsetStorageReader;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.same;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RabbitMQSourceTaskTest {
+  InProcessBroker broker;
+  Map<String, String> settings;
+  RabbitMQSourceTask task;
+
+  @BeforeEach
+  public void before() {
+    this.broker = new InProcessBroker(new AMQP.BasicProperties.Builder().messageId("message-id").build(), 16);
+    this.settings = new LinkedHashMap<>();
+    this.settings.put(RabbitMQSourceConnectorConfig.TOPIC_CONF, "topic");
+    this.settings.put(RabbitMQSourceConnectorConfig.QUEUE_CONF, "queue");
+    this.settings.put(RabbitMQSourceConnectorConfig.PREFETCH_COUNT_CONF, "10");
+    this.settings.put(RabbitMQSourceConnectorConfig.STOP_COMMIT_TIMEOUT_MS_CONF, Long.toString(TimeUnit.MINUTES.toMillis(1)));
+    this.task = newTask();
+  }
+
+  RabbitMQSourceTask newTask() {
+    final InProcessBroker broker = this.broker;
+    return new RabbitMQSourceTask() {
+      @Override
+      Connection newConnection() throws IOException {
+        return broker.connection();
+      }
+    };
+  }
+
+  static void stop(RabbitMQSourceTask task) throws InterruptedException {
+    if (null != task.config && !task.stopping) {
+      task.stop();
+    }
+    if (null != task.shutdown) {
+      task.shutdown.interrupt();
+      task.shutdown.join(TimeUnit.SECONDS.toMillis(10));
+    }
+  }
+
+  @AfterEach
+  public void after() throws InterruptedException {
+    stop(this.task);
+  }
+
+  static List<SourceRecord> pollUntilSent(RabbitMQSourceTask task) throws InterruptedException {
+    List<SourceRecord> sent = new ArrayList<>();
+    while (sent.isEmpty()) {
+      final List<SourceRecord> records = task.poll();
+      if (null != records) {
+        sent.addAll(records);
+      }
+    }
+    return sent;
+  }
+
+  @Test
+  public void stopDoesNotWaitForCommits() throws InterruptedException {
+    this.task.start(this.settings);
+    List<SourceRecord> sent = pollUntilSent(this.task);
+
+    final long started = System.nanoTime();
+    this.task.stop();
+    assertTrue(
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) < TimeUnit.SECONDS.toMillis(10),
+        "stop() should not wait for the uncommitted records."
+    );
+    assertNull(this.task.poll(), "poll() should return nothing once stopped.");
+    assertTrue(this.task.shutdown.isAlive(), "shutdown should wait for the uncommitted records.");
+
+    // Commits arrive after stop() returned, the way the producer callbacks do.
+    for (SourceRecord record : sent) {
+      this.task.commitRecord(record);
+    }
+    this.task.shutdown.join(TimeUnit.SECONDS.toMillis(10));
+    assertFalse(this.task.shutdown.isAlive(), "shutdown should finish once every record was committed.");
+  }
+
+  @Test
+  public void restart() throws Exception {
+    final ObjectName metrics = new ObjectName(
+        SourceTaskMetrics.JMX_PREFIX + ":type=" + SourceTaskMetrics.GROUP + ",connector=rabbitmq,task=0"
+    );
+    this.task.start(this.settings);
+    List<SourceRecord> sent = pollUntilSent(this.task);
+    this.task.stop();
+    assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(metrics), "stop() should unregister the metrics.");
+
+    // A rebalance starts the same task again while the stopped one still waits for its commits.
+    RabbitMQSourceTask restarted = newTask();
+    try {
+      restarted.start(this.settings);
+      assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(metrics));
+
+      for (SourceRecord record : sent) {
+        this.task.commitRecord(record);
+      }
+      this.task.shutdown.join(TimeUnit.SECONDS.toMillis(10));
+      assertFalse(this.task.shutdown.isAlive());
+      assertTrue(
+          ManagementFactory.getPlatformMBeanServer().isRegistered(metrics),
+          "the stopped task should not unregister the metrics of the restarted one."
+      );
+    } finally {
+      stop(restarted);
+    }
+  }
+
+  @Test
+  public void commitAcksOnDeliveringChannel() throws Exception {
+    this.settings.put(RabbitMQSourceConnectorConfig.QUEUE_CONF, "first,second");
+    this.settings.put(RabbitMQSourceConnectorConfig.CONSUMERS_PER_QUEUE_CONF, "2");
+    this.task.start(this.settings);
+    assertEquals(4, this.task.consumers.size(), "each queue should get a channel per consumer.");
+    assertEquals("second", this.task.consumers.get(3).queue);
+
+    SourceRecord delivered = null;
+    final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+    while (null == delivered && System.currentTimeMillis() < deadline) {
+      final List<SourceRecord> records = this.task.poll();
+      if (null == records) {
+        continue;
+      }
+      for (SourceRecord record : records) {
+        if (3 == ((Number) record.sourceOffset().get(SourceRecordBuilder.OFFSET_CHANNEL)).intValue()) {
+          delivered = record;
+          break;
+        }
+      }
+    }
+    assertNotNull(delivered, "channel 3 should have delivered a record.");
+    assertEquals(1L, delivered.sourceOffset().get(SourceRecordBuilder.OFFSET_DELIVERY_TAG));
+    assertEquals("second", delivered.sourcePartition().get(SourceRecordBuilder.PARTITION_QUEUE));
+
+    this.task.commitRecord(delivered);
+    for (ConnectConsumer consumer : this.task.consumers.values()) {
+      consumer.acks.flush();
+    }
+    assertEquals(1L, this.broker.channel(3).ackFloor, "the record should be acknowledged on the channel that delivered it.");
+    for (int channelNumber : new int[]{1, 2, 4}) {
+      assertEquals(0L, this.broker.channel(channelNumber).ackFloor, "sibling channel " + channelNumber + " should not be acknowledged.");
+    }
+  }
+
+  @Test
+  public void streamResumesAfterStoredOffset() throws Exception {
+    OffsetStorageReader offsetStorageReader = mock(OffsetStorageReader.class);
+    when(offsetStorageReader.offset(ImmutableMap.of(SourceRecordBuilder.PARTITION_QUEUE, "queue")))
+        .thenReturn(ImmutableMap.<String, Object>of(SourceRecordBuilder.OFFSET_STREAM, 41L));
+    SourceTaskContext context = mock(SourceTaskContext.class);
+    when(context.offsetStorageReader()).thenReturn(offsetStorageReader);
+    this.task.initialize(context);
+    this.settings.put(RabbitMQSourceConnectorConfig.SOURCE_MODE_CONF, "STREAM");
+    this.task.config = new RabbitMQSourceConnectorConfig(this.settings);
+
+    Channel channel = mock(Channel.class);
+    when(channel.getChannelNumber()).thenReturn(1);
+    RecordBuffer records = new RecordBuffer(10, 0L);
+    SourceTaskMetrics metrics = new SourceTaskMetrics("test", "0", this.task.config.batchMaxRecords);
+    try {
+      AckCoalescer acks = new AckCoalescer(channel, 1, 100L, Time.SYSTEM);
+      ConnectConsumer consumer = new ConnectConsumer(records, this.task.config, channel, "queue", acks, metrics);
+      this.task.consume(consumer);
+      verify(channel).basicConsume(
+          eq("queue"), eq(false), eq(""), eq(false), eq(false),
+          eq(ImmutableMap.<String, Object>of(SourceRecordBuilder.STREAM_OFFSET_HEADER, 42L)),
+          same(consumer)
+      );
+
+      consumer.handleDelivery("consumerTag", new Envelope(1L, false, "exchange", "routing.key"), streamOffset(41L), SourceRecordBuilderTest.BODY);
+      assertEquals(0, records.size(), "the stored offset was already written to Kafka.");
+      consumer.handleDelivery("consumerTag", new Envelope(2L, false, "exchange", "routing.key"), streamOffset(42L), SourceRecordBuilderTest.BODY);
+      assertEquals(1, records.size());
+
+      // Nothing stored for the queue yet, the stream is read from rabbitmq.stream.offset.start.
+      ConnectConsumer other = new ConnectConsumer(records, this.task.config, channel, "other", acks, metrics);
+      this.task.consume(other);
+      verify(channel).basicConsume(
+          eq("other"), eq(false), eq(""), eq(false), eq(false),
+          eq(ImmutableMap.<String, Object>of(SourceRecordBuilder.STREAM_OFFSET_HEADER, "next")),
+          same(other)
+      );
+      assertEquals(-1L, other.lastStreamOffset);
+    } finally {
+      metrics.close();
+    }
+  }
+
+  static AMQP.BasicProperties streamOffset(long offset) {
+    return new AMQP.BasicProperties.Builder()
+        .messageId("message-id")
+        .headers(ImmutableMap.<String, Object>of(SourceRecordBuilder.STREAM_OFFSET_HEADER, offset))
+        .build();
+  }
+}
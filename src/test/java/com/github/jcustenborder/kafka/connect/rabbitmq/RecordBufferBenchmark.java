@@ -0,0 +1,125 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.rabbitmq;
+
+import com.github.jcustenborder.kafka.connect.utils.data.SourceRecordConcurrentLinkedDeque;
+import com.google.common.collect.ImmutableMap;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.source.SourceRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency between a record being handed to the buffer on a dispatch thread and poll() returning
+ * it. `sleep` reproduces the previous drain / Thread.sleep(1000) loop, `blocking` uses {@link RecordBuffer}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class RecordBufferBenchmark {
+  static final SourceRecord RECORD = new SourceRecord(
+      ImmutableMap.of("routingKey", "benchmark"),
+      ImmutableMap.of("deliveryTag", 1L),
+      "benchmark",
+      null,
+      null,
+      null,
+      Schema.STRING_SCHEMA,
+      "benchmark",
+      0L
+  );
+
+  @Param({"blocking", "sleep"})
+  public String mode;
+
+  @Param({"0", "5"})
+  public long lingerMs;
+
+  ExecutorService dispatcher;
+  RecordBuffer buffer;
+  SourceRecordConcurrentLinkedDeque deque;
+  List<SourceRecord> batch;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    this.dispatcher = Executors.newSingleThreadExecutor();
+    this.buffer = new RecordBuffer(10000, 0L);
+    this.deque = new SourceRecordConcurrentLinkedDeque();
+    this.batch = new ArrayList<>(4096);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.buffer.close();
+    this.dispatcher.shutdownNow();
+  }
+
+  void deliverLater() {
+    final long delayMicros = ThreadLocalRandom.current().nextLong(0, 2000);
+    this.dispatcher.execute(() -> {
+      try {
+        TimeUnit.MICROSECONDS.sleep(delayMicros);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      if ("sleep".equals(this.mode)) {
+        this.deque.add(RECORD);
+      } else {
+        try {
+          this.buffer.add(RECORD, 9);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+  }
+
+  @Benchmark
+  public List<SourceRecord> handoff() throws InterruptedException {
+    this.batch.clear();
+    deliverLater();
+    if ("sleep".equals(this.mode)) {
+      while (!this.deque.drain(this.batch)) {
+        Thread.sleep(1000);
+      }
+    } else {
+      this.buffer.drain(this.batch, 4096, this.lingerMs, Long.MAX_VALUE);
+    }
+    return this.batch;
+  }
+}
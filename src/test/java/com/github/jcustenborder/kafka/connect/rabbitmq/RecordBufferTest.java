@@ -0,0 +1,198 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.rabbitmq;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.source.SourceRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RecordBufferTest {
+  RecordBuffer buffer;
+  List<SourceRecord> batch;
+
+  @BeforeEach
+  public void before() {
+    this.buffer = new RecordBuffer(5, 0L);
+    this.batch = new ArrayList<>();
+  }
+
+  static SourceRecord record(long deliveryTag) {
+    return new SourceRecord(
+        ImmutableMap.of("routingKey", "test"),
+        ImmutableMap.of("deliveryTag", deliveryTag),
+        "test",
+        null,
+        null,
+        null,
+        Schema.STRING_SCHEMA,
+        "test",
+        0L
+    );
+  }
+
+  @Test
+  public void reserve() throws Exception {
+    for (long i = 1; i <= 5; i++) {
+      assertTrue(this.buffer.reserve(1));
+    }
+    assertEquals(0, this.buffer.size());
+    assertEquals(5L, this.buffer.bytes());
+    CompletableFuture<Boolean> reserved = CompletableFuture.supplyAsync(() -> {
+      try {
+        return this.buffer.reserve(1);
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    assertThrows(TimeoutException.class, () -> reserved.get(100, TimeUnit.MILLISECONDS), "Reservations should count against maxRecords.");
+
+    assertTrue(this.buffer.add(record(1), 1, 3, System.nanoTime()));
+    assertEquals(1, this.buffer.size());
+    assertEquals(7L, this.buffer.bytes(), "The record should replace the reserved bytes.");
+    this.buffer.release(1);
+    assertTrue(reserved.get(1, TimeUnit.SECONDS), "Releasing a reservation should make room.");
+    assertEquals(7L, this.buffer.bytes());
+
+    this.buffer.close();
+    assertFalse(this.buffer.reserve(1));
+    assertFalse(this.buffer.add(record(2), 1, 1, System.nanoTime()));
+    assertEquals(1, this.buffer.size());
+  }
+
+  @Test
+  public void backpressure() throws Exception {
+    for (long i = 1; i <= 5; i++) {
+      this.buffer.add(record(i), 1);
+    }
+    CompletableFuture<Boolean> added = CompletableFuture.supplyAsync(() -> {
+      try {
+        return this.buffer.add(record(6), 1);
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    assertThrows(TimeoutException.class, () -> added.get(100, TimeUnit.MILLISECONDS));
+    assertTrue(this.buffer.drain(this.batch, 1, 0L, 10L));
+    assertTrue(added.get(10, TimeUnit.SECONDS));
+    assertEquals(5, this.buffer.size());
+    assertTrue(this.buffer.blockedNanos() > 0L);
+  }
+
+  @Test
+  public void maxBytes() throws InterruptedException {
+    this.buffer = new RecordBuffer(100, 10L);
+    this.buffer.add(record(1), 6);
+    this.buffer.add(record(2), 4);
+    assertEquals(10L, this.buffer.bytes());
+    this.buffer.close();
+    assertFalse(this.buffer.add(record(3), 1), "closed buffer should reject records.");
+    assertTrue(this.buffer.drain(this.batch, 10, 0L, 10L));
+    assertEquals(2, this.batch.size());
+    assertEquals(0L, this.buffer.bytes());
+  }
+
+  @Test
+  public void batchMaxBytes() throws InterruptedException {
+    this.buffer.add(record(1), 6);
+    this.buffer.add(record(2), 4);
+    this.buffer.add(record(3), 1);
+    assertTrue(this.buffer.drain(this.batch, 10, 8L, 0L, 10L));
+    assertEquals(1, this.batch.size(), "second record would exceed batch.max.bytes.");
+    this.batch.clear();
+    assertTrue(this.buffer.drain(this.batch, 10, 2L, 0L, 10L));
+    assertEquals(1, this.batch.size(), "a record larger than batch.max.bytes should be returned on its own.");
+    this.batch.clear();
+    assertTrue(this.buffer.drain(this.batch, 10, 8L, 0L, 10L));
+    assertEquals(1, this.batch.size());
+    assertEquals(0L, this.buffer.bytes());
+  }
+
+  @Test
+  public void timeout() throws InterruptedException {
+    assertFalse(this.buffer.drain(this.batch, 10, 0L, 10L));
+    assertTrue(this.batch.isEmpty());
+  }
+
+  @Test
+  public void maxRecords() throws InterruptedException {
+    for (long i = 1; i <= 5; i++) {
+      this.buffer.add(record(i), 1);
+    }
+    assertTrue(this.buffer.drain(this.batch, 3, 0L, 10L));
+    assertEquals(3, this.batch.size());
+    assertEquals(2, this.buffer.size());
+  }
+
+  @Test
+  public void wakeOnAdd() throws Exception {
+    CompletableFuture<Boolean> drained = CompletableFuture.supplyAsync(() -> {
+      try {
+        return this.buffer.drain(this.batch, 10, 0L, TimeUnit.MINUTES.toMillis(1));
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    this.buffer.add(record(1), 1);
+    assertTrue(drained.get(10, TimeUnit.SECONDS));
+    assertEquals(1, this.batch.size());
+  }
+
+  @Test
+  public void wakeOnClose() throws Exception {
+    CompletableFuture<Boolean> drained = CompletableFuture.supplyAsync(() -> {
+      try {
+        return this.buffer.drain(this.batch, 10, 0L, TimeUnit.MINUTES.toMillis(1));
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    this.buffer.close();
+    assertFalse(drained.get(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void bufferedTime() throws InterruptedException {
+    final long now = System.nanoTime();
+    this.buffer.add(record(1), 1, now - TimeUnit.SECONDS.toNanos(2));
+    this.buffer.add(record(2), 1, now - TimeUnit.SECONDS.toNanos(1));
+    assertTrue(this.buffer.drain(this.batch, 10, 0L, 10L));
+    assertTrue(this.buffer.drainedMaxBufferedNanos() >= TimeUnit.SECONDS.toNanos(2));
+    assertTrue(this.buffer.drainedBufferedNanos() >= TimeUnit.SECONDS.toNanos(3));
+  }
+
+  @Test
+  public void purge() throws InterruptedException {
+    for (long i = 1; i <= 5; i++) {
+      this.buffer.add(record(i), 1);
+    }
+    assertEquals(2, this.buffer.purge(record -> ((Long) record.sourceOffset().get("deliveryTag")) % 2 == 0));
+    assertEquals(3, this.buffer.size());
+    assertEquals(3L, this.buffer.bytes());
+  }
+}
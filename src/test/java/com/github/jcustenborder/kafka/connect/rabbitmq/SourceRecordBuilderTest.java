@@ -0,0 +1,120 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.rabbitmq;
+
+import com.google.common.collect.ImmutableMap;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Envelope;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.errors.DataException;
+import org.apache.kafka.connect.source.SourceRecord;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class SourceRecordBuilderTest {
+  static final byte[] BODY = "{\"id\": 1}".getBytes(StandardCharsets.UTF_8);
+  static final Envelope ENVELOPE = new Envelope(1234L, false, "exchange", "routing.key");
+  static final AMQP.BasicProperties BASIC_PROPERTIES = new AMQP.BasicProperties.Builder()
+      .messageId("message-1")
+      .build();
+
+  static RabbitMQSourceConnectorConfig config(Map<String, String> overrides) {
+    Map<String, String> settings = new LinkedHashMap<>();
+    settings.put(RabbitMQSourceConnectorConfig.TOPIC_CONF, "topic");
+    settings.put(RabbitMQSourceConnectorConfig.QUEUE_CONF, "queue");
+    settings.putAll(overrides);
+    return new RabbitMQSourceConnectorConfig(settings);
+  }
+
+  @Test
+  public void string() {
+    SourceRecordBuilder builder = new SourceRecordBuilder(config(ImmutableMap.of()), 1, "queue");
+    SourceRecord record = builder.sourceRecord("consumerTag", ENVELOPE, BASIC_PROPERTIES, BODY);
+    assertEquals("topic", record.topic());
+    assertEquals(Schema.STRING_SCHEMA, record.valueSchema());
+    assertEquals("{\"id\": 1}", record.value());
+    assertEquals(1234L, record.sourceOffset().get(SourceRecordBuilder.OFFSET_DELIVERY_TAG));
+    assertEquals(1, record.sourceOffset().get(SourceRecordBuilder.OFFSET_CHANNEL));
+    assertEquals(ImmutableMap.of(SourceRecordBuilder.PARTITION_QUEUE, "queue"), record.sourcePartition());
+  }
+
+  @Test
+  public void chargedBytes() {
+    final byte[] body = "{\"name\": \"caf\u00e9 \u2603\"}".getBytes(StandardCharsets.UTF_8);
+    SourceRecordBuilder builder = new SourceRecordBuilder(config(ImmutableMap.of()), 1, "queue");
+    DeliveredRecord record = builder.sourceRecord("consumerTag", ENVELOPE, BASIC_PROPERTIES, body);
+    assertEquals(body.length, record.bytes, "string payloads should be charged with the encoded body length.");
+    assertEquals(body.length, InFlightBytes.size(record));
+  }
+
+  @Test
+  public void partitionIsShared() {
+    SourceRecordBuilder builder = new SourceRecordBuilder(config(ImmutableMap.of()), 1, "queue");
+    SourceRecord first = builder.sourceRecord("consumerTag", ENVELOPE, BASIC_PROPERTIES, BODY);
+    SourceRecord second = builder.sourceRecord(
+        "consumerTag", new Envelope(1235L, false, "exchange", "other.routing.key"), BASIC_PROPERTIES, BODY
+    );
+    assertSame(first.sourcePartition(), second.sourcePartition());
+  }
+
+  @Test
+  public void routedTopic() {
+    SourceRecordBuilder builder = new SourceRecordBuilder(
+        config(ImmutableMap.of(RabbitMQSourceConnectorConfig.TOPIC_CONF, "rabbitmq.${routingKey}")),
+        1,
+        "queue"
+    );
+    SourceRecord record = builder.sourceRecord("consumerTag", ENVELOPE, BASIC_PROPERTIES, BODY);
+    assertEquals("rabbitmq.routing.key", record.topic());
+  }
+
+  @Test
+  public void bytes() {
+    SourceRecordBuilder builder = new SourceRecordBuilder(
+        config(ImmutableMap.of(RabbitMQSourceConnectorConfig.PAYLOAD_FORMAT_CONF, "BYTES")),
+        1,
+        "queue"
+    );
+    SourceRecord record = builder.sourceRecord("consumerTag", ENVELOPE, BASIC_PROPERTIES, BODY);
+    assertEquals("topic", record.topic());
+    assertEquals(Schema.BYTES_SCHEMA, record.valueSchema());
+    assertSame(BODY, record.value(), "body should be passed through without copying.");
+  }
+
+  @Test
+  public void stream() {
+    SourceRecordBuilder builder = new SourceRecordBuilder(
+        config(ImmutableMap.of(RabbitMQSourceConnectorConfig.SOURCE_MODE_CONF, "STREAM")),
+        1,
+        "queue"
+    );
+    AMQP.BasicProperties basicProperties = new AMQP.BasicProperties.Builder()
+        .headers(ImmutableMap.of(SourceRecordBuilder.STREAM_OFFSET_HEADER, 42L))
+        .build();
+    SourceRecord record = builder.sourceRecord("consumerTag", ENVELOPE, basicProperties, BODY);
+    assertEquals(ImmutableMap.of(SourceRecordBuilder.PARTITION_QUEUE, "queue"), record.sourcePartition());
+    assertEquals(ImmutableMap.of(SourceRecordBuilder.OFFSET_STREAM, 42L), record.sourceOffset());
+
+    assertThrows(DataException.class, () -> builder.sourceRecord("consumerTag", ENVELOPE, BASIC_PROPERTIES, BODY));
+  }
+}
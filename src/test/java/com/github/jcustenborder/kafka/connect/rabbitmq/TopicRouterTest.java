@@ -0,0 +1,90 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.rabbitmq;
+
+import com.google.common.collect.ImmutableMap;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.impl.LongStringHelper;
+import org.apache.kafka.connect.errors.DataException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TopicRouterTest {
+  static final Envelope ENVELOPE = new Envelope(1L, false, "orders", "eu.created");
+  static final AMQP.BasicProperties BASIC_PROPERTIES = new AMQP.BasicProperties.Builder()
+      .messageId("message-1")
+      .headers(ImmutableMap.of("tenant", LongStringHelper.asLongString("acme")))
+      .build();
+
+  @Test
+  public void constant() {
+    TopicRouter router = TopicRouter.compile("rabbitmq", 10);
+    assertNotNull(router);
+    assertEquals("rabbitmq", router.constant);
+    assertEquals("rabbitmq", router.resolver().topic("queue", ENVELOPE, BASIC_PROPERTIES));
+  }
+
+  @Test
+  public void placeholders() {
+    TopicRouter.Resolver resolver = TopicRouter.compile("${exchange}-${queue}.${headers.tenant}.${messageId}", 10).resolver();
+    assertEquals("orders-queue.acme.message-1", resolver.topic("queue", ENVELOPE, BASIC_PROPERTIES));
+  }
+
+  @Test
+  public void cached() {
+    TopicRouter.Resolver resolver = TopicRouter.compile("rabbitmq.${routingKey}", 10).resolver();
+    final String first = resolver.topic("queue", ENVELOPE, BASIC_PROPERTIES);
+    assertEquals("rabbitmq.eu.created", first);
+    assertSame(first, resolver.topic("queue", ENVELOPE, BASIC_PROPERTIES));
+  }
+
+  @Test
+  public void lru() {
+    TopicRouter.Resolver resolver = TopicRouter.compile("${routingKey}", 2).resolver();
+    for (String routingKey : new String[]{"a", "b", "a", "c"}) {
+      resolver.topic("queue", new Envelope(1L, false, "", routingKey), BASIC_PROPERTIES);
+    }
+    assertEquals(2, resolver.cache.size());
+    assertNotNull(resolver.cache.get("a"));
+    assertNull(resolver.cache.get("b"));
+  }
+
+  @Test
+  public void templateEngine() {
+    assertNull(TopicRouter.compile("${body?length}", 10));
+    assertNull(TopicRouter.compile("rabbitmq.${routingKey", 10));
+  }
+
+  @Test
+  public void directives() {
+    assertNull(TopicRouter.compile("<#if exchange == \"orders\">orders<#else>other</#if>", 10), "template without ${ must not become a constant topic.");
+    assertNull(TopicRouter.compile("<#if exchange??>${routingKey}</#if>", 10));
+    assertNull(TopicRouter.compile("<@topic/>", 10));
+    assertNull(TopicRouter.compile("rabbitmq.#{priority}", 10));
+  }
+
+  @Test
+  public void missingHeader() {
+    TopicRouter.Resolver resolver = TopicRouter.compile("${headers.missing}", 10).resolver();
+    assertThrows(DataException.class, () -> resolver.topic("queue", ENVELOPE, BASIC_PROPERTIES));
+  }
+}